@@ -0,0 +1,41 @@
+package azdo.action;
+
+import azdo.utils.Log;
+import azdo.yaml.ActionResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/******************************************************************************************
+ This class combines multiple actions that must be executed on the same section. For example,
+ mocking a command in a script inserts a new step before the script and adds a line to the
+ script itself. The actions are executed in the given order. The composite action is regarded
+ as executed if the first action is executed; the other actions are only executed if the first
+ one was.
+ ******************************************************************************************/
+public class ActionComposite implements Action {
+    private static final Log logger = Log.getLogger();
+    private ArrayList<Action> actions;
+
+    public ActionComposite(Action... actions) {
+        this.actions = new ArrayList<>(Arrays.asList(actions));
+    }
+
+    public void execute (ActionResult actionResult) {
+        logger.debug("==> Method ActionComposite.execute");
+
+        int size = actions.size();
+        for (int index = 0; index < size; index++) {
+            actions.get(index).execute(actionResult);
+            if (!actionResult.actionExecuted)
+                return;
+        }
+    }
+
+    // The composite is executed on a section that was already found
+    public boolean needsSectionIdentifier() {
+        return false;
+    }
+
+    // This action is not a custom action
+    public boolean isCustomAction () { return false; }
+}
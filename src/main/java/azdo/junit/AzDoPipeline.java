@@ -6,14 +6,17 @@ package azdo.junit;
 import azdo.action.*;
 import azdo.hook.Hook;
 import azdo.utils.*;
-import azdo.yaml.ActionResult;
-import azdo.yaml.RepositoryResource;
+import azdo.yaml.SectionSelector;
 import azdo.yaml.YamlDocumentEntryPoint;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.transport.CredentialsProvider;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 import static azdo.utils.Constants.*;
 
 /******************************************************************************************
@@ -22,11 +25,11 @@ import static azdo.utils.Constants.*;
  template files (YAML). All AzDoPipeline methods used by the JUnit tests are forwarded
  to the encapsulated objects.
  *******************************************************************************************/
-public class AzDoPipeline {
+public class AzDoPipeline implements AutoCloseable {
     private static final Log logger = Log.getLogger();
     private PropertyUtils properties = null; // Reference to PropertyUtils object, which is null by default
     private String propertyFile = null; // Optional reference to the property file, which is null by default
-    private Git git = null;
+    private GitSession gitSession = null; // Session with the local clone of the main repository; kept open between startPipeline calls
     private CredentialsProvider credentialsProvider;
     private  ArrayList<String> validVariableGroups = null; // All 'variable groups' defined in the target Azure DevOps project
     private  ArrayList<String> validEnvironments = null; // All 'environments' defined in the target Azure DevOps project
@@ -89,6 +92,16 @@ public class AzDoPipeline {
                 properties.getSourceRepositoryName(),
                 properties.getTargetRepositoryName());
 
+        // Template files are found using an index of the source directory; watch the directory if needed
+        FileIndex.setWatchEnabled(properties.isFileIndexWatch());
+        FileIndex.setExclusionPattern(properties.getTargetExludeList());
+
+        // Source files are copied to the target directory if they are changed; compare the content if needed
+        DirectorySync.setCompareContent(properties.isSyncCompareContent());
+
+        // Actions are recorded and applied when the pipeline starts, or executed immediately
+        yamlDocumentEntryPoint.setDeferActions(properties.isActionsDeferred());
+
         // Read the main pipeline file; this is the YAML file used in the Azure DevOps pipeline (in the Azure DeVOps test project).
         yamlMap = yamlDocumentEntryPoint.read(pipelineFile, properties.isContinueOnError());
 
@@ -174,7 +187,7 @@ public class AzDoPipeline {
     target repository (associated with the Azure DeVOps test project).
     The local repositories are committed and pushed to the remote repositories in the Azure DeVOps test project.
     After all files are pushed, the pipeline in Azure Devops is called by means of an API.
-    The last step is to reload the original yaml file, so it can be used for the next test.
+    The last step is to restore the original yaml files, so they can be used for the next test.
     The startPipeline() method has different flavors, that allow to pass hooks or perform
      a dryrun (not starting the pipeline).
     @throws IOException
@@ -242,43 +255,59 @@ public class AzDoPipeline {
          *******************************************************************************************/
         runResult = new RunResult(); // Initialize runResult; this is needed if startPipeline() is called multiple times.
 
-        // Clone the target repository to local if not done earlier.
-        // Keep the reference to the git object.
-        try {
-            // Clone the main repository to local and initialize
-            git = GitUtils.cloneAzdoToLocal(properties.getTargetPath(),
-                    properties.getTargetRepositoryName(),
-                    properties.getAzDoUser(),
-                    properties.getAzdoPat(),
-                    properties.getTargetOrganization(),
-                    properties.getTargetProject());
+        // Clone the target repository to local if not done earlier; an existing clone is reused and only the branch is fetched.
+        // Keep the session with the repository open, so it can be reused by the next startPipeline call.
+        if (gitSession == null)
+            gitSession = new GitSession(properties.getTargetPath());
+        if (gitSession.isOpen()) {
+            GitUtils.fetchBranch(gitSession.getGit(), branchName, properties.getAzDoUser(), properties.getAzdoPat());
         }
-        catch (Exception e) {
-            logger.debug("Exception occurred. Cannot clone repository to local: {}", e.getMessage());
+        else {
+            try {
+                // Clone the main repository to local and initialize
+                gitSession.setGit(GitUtils.cloneOrFetchAzdoToLocal(properties.getTargetPath(),
+                        properties.getTargetRepositoryName(),
+                        properties.getAzDoUser(),
+                        properties.getAzdoPat(),
+                        properties.getTargetOrganization(),
+                        properties.getTargetProject(),
+                        branchName));
+            }
+            catch (Exception e) {
+                logger.debug("Exception occurred. Cannot clone repository to local: {}", e.getMessage());
+            }
         }
 
-        // If git object is invalid after the clone or if the repository was not cloned, recreate the git object again.
-        if (git == null) {
-            logger.debug("Recreate git object");
-            git = GitUtils.createGit(properties.getTargetPath());
-        }
+        // If git object is invalid after the clone or if the repository was not cloned, the existing local repository is opened.
+        Git git = gitSession.getGit();
 
-        // Check whether there is a remote branch; pipelines can be started using files from any branch.
-        boolean isRemote = GitUtils.containsBranch(git, branchName);
+        // The commit of the main repository can be built in memory, unless hooks need the files in the target directory
+        boolean commitInMemory = properties.isCommitInMemory() && (hooks == null || hooks.isEmpty());
 
-        // Perform the checkout. This may fail, but that's not a problem. The main concern is that
-        // the branch is created in the remote repository in the Azure DevOps test project.
-        GitUtils.checkout(git, properties.getTargetPath(), branchName, !isRemote);
+        // Keep track of the files that are copied and written, so only these files are staged in the commit.
+        // Hooks may change any file in the target directory, so then all files are staged.
+        ChangeSet changeSet = hooks == null || hooks.isEmpty() ? new ChangeSet() : null;
+        if (!commitInMemory) {
+            // Check whether there is a remote branch; pipelines can be started using files from any branch.
+            boolean isRemote = GitUtils.containsBranch(git, branchName);
 
-        // Copy local resources from main source to the target directory.
-        try {
-            // Copy all sources from the source local repo to the target local repo.
-            Utils.copyAll(properties.getSourcePath(), properties.getTargetPath(), properties.getTargetExludeList());
-        }
-        catch (Exception e) {
-            logger.debug("Exception occurred.Cannot copy local files to target: {}", e.getMessage());
+            // Perform the checkout. This may fail, but that's not a problem. The main concern is that
+            // the branch is created in the remote repository in the Azure DevOps test project.
+            GitUtils.checkout(git, properties.getTargetPath(), branchName, !isRemote);
+
+            // Copy local resources from main source to the target directory.
+            try {
+                // Copy all sources from the source local repo to the target local repo.
+                Utils.copyAll(properties.getSourcePath(), properties.getTargetPath(), properties.getTargetExludeList(), changeSet);
+            }
+            catch (Exception e) {
+                logger.debug("Exception occurred.Cannot copy local files to target: {}", e.getMessage());
+            }
         }
 
+        // Apply the deferred actions (if any); this must be done before the resources are made local
+        yamlDocumentEntryPoint.applyActionPlan();
+
         /*******************************************************************************************
                               Doing stuff for the external repositories
          *******************************************************************************************/
@@ -287,7 +316,7 @@ public class AzDoPipeline {
         if (properties.isIncludeExternalTemplates()) {
             // Copy all resources from a local version of the external repositories.
             // This cleans up the local 'external resources' repositories after it was poluted by the previous testrun.
-            yamlDocumentEntryPoint.copyAllSourceFiles(properties.getTargetExludeList());
+            yamlDocumentEntryPoint.copyAllSourceFiles(properties.getTargetExludeList(), changeSet);
 
             // Repositories in the resources section of the yaml pipeline are copied to the Azure DevOps
             // test project. This makes them git repositories, all with type = git (which means Azure DevOps),
@@ -304,7 +333,14 @@ public class AzDoPipeline {
         // The manipulated YAML files are stored in memory (in a YamlDocument or YamlTemplate object). The target
         // location is a local repository, with a remote repository residing in the Azure DevOps test project.
         // Manipulation is performed in JUnit tests by calling the pipeline actions (overrideVariable, overrideLiteral. etc...).
-        yamlDocumentEntryPoint.dumpYaml();
+        // If the commit is built in memory, the YAML files of the main repository are kept in memory.
+        Map<String, byte[]> inMemoryFiles = new HashMap<>();
+        if (commitInMemory)
+            yamlDocumentEntryPoint.dumpYaml(inMemoryFiles);
+        else
+            yamlDocumentEntryPoint.dumpYaml();
+        if (changeSet != null)
+            changeSet.addChanged(yamlDocumentEntryPoint.getWrittenFiles());
 
         // Perform all (pre)hooks
         if (hooks != null) {
@@ -315,10 +351,11 @@ public class AzDoPipeline {
             }
         }
 
-        // Validate all manipulated YAML files
+        // Validate all manipulated YAML files; if no hooks changed the files, the yaml maps are validated in memory
         yamlDocumentEntryPoint.validateTargetOutputFilesAndTemplates(validVariableGroups,
                 validEnvironments,
                 properties.getTargetProject(),
+                hooks == null || hooks.isEmpty(),
                 properties.isContinueOnError());
 
         /*******************************************************************************************
@@ -326,24 +363,38 @@ public class AzDoPipeline {
          *******************************************************************************************/
 
         // Push the local (main) repo to remote; this is the repository containing the main pipeline YAML file.
-        RepositoryResource metadataRepository = new RepositoryResource(); // Only used for logging
-        metadataRepository.repository = properties.getTargetRepositoryName();
-        GitUtils.commitAndPush(git,
-                properties.getAzDoUser(),
-                properties.getAzdoPat(),
-                properties.getCommitPatternList(),
-                metadataRepository,
-                properties.isContinueOnError());
-
-        if (git != null)
-            git.close();
+        Callable<Void> mainRepositoryPush = () -> {
+            if (commitInMemory) {
+                GitUtils.commitAndPushInMemory(git,
+                        branchName,
+                        properties.getSourcePath(),
+                        properties.getTargetExludeList(),
+                        properties.getTargetPath(),
+                        inMemoryFiles,
+                        properties.getAzDoUser(),
+                        properties.getAzdoPat());
+            }
+            else {
+                GitUtils.commitAndPush(git,
+                        branchName,
+                        properties.getAzDoUser(),
+                        properties.getAzdoPat(),
+                        properties.getCommitPatternList(),
+                        changeSet);
+            }
+            return null;
+        };
 
-        // Commit and Push all external repositories to remote.
+        // Commit and Push all external repositories to remote, concurrently with the main repository.
         // The repositoryList is maintained by the YamlDocumentEntryPoint, so delegate to the YamlDocumentEntryPoint.
         // This results in pushing all manipulated template files to the remote repositories in the Azure DevOps test project.
+        // The external repositories are only pushed if includeExternalTemplates = true; otherwise, the list is empty.
         yamlDocumentEntryPoint.commitAndPushTemplates (properties.getAzDoUser(),
                 properties.getAzdoPat(),
                 properties.getCommitPatternList(),
+                changeSet,
+                properties.getTargetRepositoryName(),
+                mainRepositoryPush,
                 properties.isContinueOnError());
 
         /*******************************************************************************************
@@ -353,7 +404,7 @@ public class AzDoPipeline {
         // If dryRun is true, the pipeline does not start.
         if (!dryRun) {
             logger.info("Execute the pipeline remotely in Azure DevOps project \'{}\' with branch \'{}\'", properties.getTargetProject(), branchName);
-            AzDoUtils.callPipelineRunApi (properties.getAzDoUser(),
+            String buildId = AzDoUtils.callPipelineRunApi (properties.getAzDoUser(),
                     properties.getAzdoPat(),
                     properties.getAzdoEndpoint(),
                     properties.getBuildApi(),
@@ -361,15 +412,37 @@ public class AzDoPipeline {
                     pipelineId,
                     branchName,
                     properties.isContinueOnError());
-            runResult = AzDoUtils.callRunResult (properties.getAzDoUser(),
-                    properties.getAzdoPat(),
-                    properties.getBuildApiPollFrequency(),
-                    properties.getBuildApiPollTimeout(),
-                    properties.getAzdoEndpoint(),
-                    properties.getBuildApi(),
-                    properties.getBuildApiVersion(),
-                    pipelineId,
-                    properties.isContinueOnError());
+            if (buildId != null) {
+                // Wait for the result; the status of all runs in this JVM is polled together
+                CompletableFuture<RunResult> futureRunResult = RunStatusMultiplexer.of(properties.getAzDoUser(),
+                        properties.getAzdoPat(),
+                        properties.getAzdoEndpoint(),
+                        properties.getBuildApi(),
+                        properties.getBuildApiVersion()).register(buildId,
+                        properties.getBuildApiPollFrequency(),
+                        properties.getBuildApiPollTimeout());
+                try {
+                    runResult = futureRunResult.join();
+                }
+                catch (CompletionException e) {
+                    logger.error("Retrieving the pipeline result failed: {}", e.getMessage());
+                    runResult = null;
+                }
+                if (runResult == null && !properties.isContinueOnError())
+                    System.exit(1);
+            }
+            else {
+                // The id of the run is unknown; poll the last run of the pipeline
+                runResult = AzDoUtils.callRunResult (properties.getAzDoUser(),
+                        properties.getAzdoPat(),
+                        properties.getBuildApiPollFrequency(),
+                        properties.getBuildApiPollTimeout(),
+                        properties.getAzdoEndpoint(),
+                        properties.getBuildApi(),
+                        properties.getBuildApiVersion(),
+                        pipelineId,
+                        properties.isContinueOnError());
+            }
 
             // Runresult may be null; handle it gracefully
             // Return a new object with result and status are "undetermined"
@@ -384,9 +457,10 @@ public class AzDoPipeline {
             logger.info("dryRun is true; skip executing the pipeline");
         }
 
-        // Re-read the original pipeline for the next test (for a clean start of the next test).
-        // The manipulated, in-memory stored YAML files are refreshed with the content of the original (source) files.
-        yamlMap = yamlDocumentEntryPoint.read(yamlFile, properties.isContinueOnError());
+        // Restore the original pipeline and templates for the next test (for a clean start of the next test).
+        // The manipulated, in-memory stored YAML files are replaced by a copy of the original (source) files, as read
+        // when the AzDoPipeline object was created.
+        yamlMap = yamlDocumentEntryPoint.restore();
 
         logger.debug("");
         logger.debug(DEMARCATION);
@@ -409,6 +483,30 @@ public class AzDoPipeline {
         return properties;
     }
 
+    /******************************************************************************************
+     @return Returns the actions that did not match any section in the YAML files. This only
+     applies if the property 'actions.deferred' is true; the list is determined when the
+     pipeline starts.
+     *******************************************************************************************/
+    public ArrayList<String> getUnmatchedActions() {
+        return yamlDocumentEntryPoint.getUnmatchedActions();
+    }
+
+    /******************************************************************************************
+     Close the local repository that is kept open between startPipeline calls. Call this when
+     the pipeline is not used anymore, for example in an @AfterAll method of the test class.
+     The pipeline can still be started afterwards; the repository is opened again.
+     *******************************************************************************************/
+    @Override
+    public void close() {
+        logger.debug("==> Method: AzDoPipeline.close");
+
+        if (gitSession != null) {
+            gitSession.close();
+            gitSession = null;
+        }
+    }
+
     /******************************************************************************************
      Skip a stage.
      The result is, that the stage is completely removed from the output pipeline yaml file,
@@ -1127,6 +1225,32 @@ public class AzDoPipeline {
         return this;
     }
 
+    /******************************************************************************************
+     Override multiple strings in the yaml files in one pass.
+     @param literals Map with the substrings to replace (keys) and their new values (values).
+     @param replaceAll Replace all occurences in all yaml files, including the templates. If false,
+                       only the first occurrence of each substring in each file is replaced.
+
+     A replaced value is not searched again, and if multiple substrings start at the same position,
+     the longest one is replaced. The number of replacements in each file is logged.
+     ******************************************************************************************/
+    public AzDoPipeline overrideLiterals (Map<String, String> literals,
+                                          boolean replaceAll) {
+        logger.debug("==> Method: AzDoPipeline.overrideLiterals");
+        logger.debug("literals: {}", literals);
+        logger.debug("replaceAll: {}", replaceAll);
+
+        yamlDocumentEntryPoint.overrideLiterals(literals, replaceAll);
+
+        return this;
+    }
+
+    public AzDoPipeline overrideLiterals (Map<String, String> literals) {
+        overrideLiterals(literals, true);
+
+        return this;
+    }
+
     /******************************************************************************************
      Replace the current branch with a given branch name.
      @param newBranchName New branch name that overrides an occurence of the current branch.
@@ -1147,12 +1271,14 @@ public class AzDoPipeline {
         logger.debug("newBranchName: {}", newBranchName);
         logger.debug("replaceAll: {}", replaceAll);
 
-        overrideLiteral("variables[\'Build.SourceBranch\']", "\'refs/heads/" + newBranchName + "\'", replaceAll);
-        overrideLiteral("$(Build.SourceBranch)", "refs/heads/" + newBranchName, replaceAll);
-        overrideLiteral("variables[\'Build.SourceBranchName\']", "\'" + newBranchName + "\'", replaceAll);
-        overrideLiteral("$(Build.SourceBranchName)", newBranchName, replaceAll);
-        overrideLiteral("BUILD_SOURCEBRANCH", "refs/heads/" + newBranchName, replaceAll);
-        overrideLiteral("BUILD_SOURCEBRANCHNAME", newBranchName, replaceAll);
+        LinkedHashMap<String, String> literals = new LinkedHashMap<>();
+        literals.put("variables[\'Build.SourceBranch\']", "\'refs/heads/" + newBranchName + "\'");
+        literals.put("$(Build.SourceBranch)", "refs/heads/" + newBranchName);
+        literals.put("variables[\'Build.SourceBranchName\']", "\'" + newBranchName + "\'");
+        literals.put("$(Build.SourceBranchName)", newBranchName);
+        literals.put("BUILD_SOURCEBRANCH", "refs/heads/" + newBranchName);
+        literals.put("BUILD_SOURCEBRANCHNAME", newBranchName);
+        overrideLiterals(literals, replaceAll);
 
         return this;
     }
@@ -1270,16 +1396,11 @@ public class AzDoPipeline {
         Map<String, Object> stepToInsert = new LinkedHashMap<>();
         stepToInsert.put(STEP_SCRIPT, inlineScript);
 
-        // Call the performAction method; find the task section with the displayName
-        ActionResult ar;
-        ActionUpdateSectionByProperty actionTask = new ActionUpdateSectionByProperty(SECTION_TASK, PROPERTY_DISPLAY_NAME, displayValue, stepToInsert);
-        ar = yamlDocumentEntryPoint.performAction (actionTask, SECTION_TASK, "");
-
-        // Also check whether a script must be updated, instead of a task
-        if (ar == null || !ar.actionExecuted) {
-            ActionUpdateSectionByProperty actionScript = new ActionUpdateSectionByProperty(STEP_SCRIPT, PROPERTY_DISPLAY_NAME, displayValue, stepToInsert);
-            yamlDocumentEntryPoint.performAction(actionScript, STEP_SCRIPT, "");
-        }
+        // Call the performAction method; find the task or script section with the displayName
+        ArrayList<String> sectionTypes = new ArrayList<>();
+        sectionTypes.add(SECTION_TASK);
+        sectionTypes.add(STEP_SCRIPT);
+        performAction (sectionTypes, "ActionUpdateSectionByProperty", PROPERTY_DISPLAY_NAME, displayValue, stepToInsert, false);
 
         return this;
     }
@@ -1329,40 +1450,22 @@ public class AzDoPipeline {
         }
 
         if (newLine != null) {
-            // Insert the bash step before a searched step of type 'script' (if found)
-            ActionResult ar;
-            ActionInsertSectionByProperty scriptAction = new ActionInsertSectionByProperty(STEP_SCRIPT, PROPERTY_DISPLAY_NAME, displayValue, stepToInsert, true);
-            ar = yamlDocumentEntryPoint.performAction (scriptAction, STEP_SCRIPT, "");
-
-            // Add a new line to the subsequent script step
-            ActionInsertLineInSection scriptActionInsertLineInSection = new ActionInsertLineInSection(STEP_SCRIPT, PROPERTY_DISPLAY_NAME, displayValue, newLine);
-            yamlDocumentEntryPoint.performAction(scriptActionInsertLineInSection, STEP_SCRIPT, "");
-
-            if (ar == null || !ar.actionExecuted) {
-                // If the script was not found, try to insert the bash step before a searched step of type 'bash'
-                ActionInsertSectionByProperty bashAction = new ActionInsertSectionByProperty(STEP_SCRIPT_BASH, PROPERTY_DISPLAY_NAME, displayValue, stepToInsert, true);
-                ar = yamlDocumentEntryPoint.performAction(bashAction, STEP_SCRIPT_BASH, "");
-
-                // Add a new line to the subsequent bash step
-                ActionInsertLineInSection bashActionInsertLineInSection = new ActionInsertLineInSection(STEP_SCRIPT_BASH, PROPERTY_DISPLAY_NAME, displayValue, newLine);
-                yamlDocumentEntryPoint.performAction(bashActionInsertLineInSection, STEP_SCRIPT_BASH, "");
-            }
-
-            if (ar == null || !ar.actionExecuted) {
-                // If the searched step is not a "bash" or "script" type, it may be a "Bash@3" task. Btw, use the SECTION_TASK instead of the TASK_BASH_3
-                ActionInsertSectionByProperty actionBashTask = new ActionInsertSectionByProperty(SECTION_TASK, PROPERTY_DISPLAY_NAME, displayValue, stepToInsert, true);
-                yamlDocumentEntryPoint.performAction(actionBashTask, SECTION_TASK, "");
-
-                // Insert a new line to the "Bash@3" script; the line contains a declaration of the function file created in the inserted step
-                // The inline script in a "Bash@3" task is > inputs > script
-                ActionInsertLineInInnerSection actionInsertLineInInnerSection = new ActionInsertLineInInnerSection(SECTION_TASK,
-                        PROPERTY_DISPLAY_NAME,
-                        displayValue,
-                        INPUTS,
-                        SCRIPT,
-                        newLine);
-                yamlDocumentEntryPoint.performAction(actionInsertLineInInnerSection, TASK_BASH_3, "");
-            }
+            // Find the step of type 'script', 'bash' or 'Bash@3' task in one search.
+            // Insert the bash step before the step that is found, and add a new line to the script of that step.
+            // The new line contains a declaration of the function file created in the inserted step.
+            // The inline script in a "Bash@3" task is > inputs > script
+            String displayName = SectionSelector.quote(displayValue);
+            SectionSelector selector = SectionSelector.compile(STEP_SCRIPT + "|" + STEP_SCRIPT_BASH + "[" + PROPERTY_DISPLAY_NAME + "=" + displayName + "], " +
+                    SECTION_TASK + "[" + TASK_BASH_3 + "][" + PROPERTY_DISPLAY_NAME + "=" + displayName + "]");
+            final String line = newLine;
+            yamlDocumentEntryPoint.performAction(selector, sectionType -> {
+                if (SECTION_TASK.equals(sectionType))
+                    return new ActionComposite(new ActionInsertSectionByProperty(SECTION_TASK, PROPERTY_DISPLAY_NAME, displayValue, stepToInsert, true),
+                            new ActionInsertLineInInnerSection(SECTION_TASK, PROPERTY_DISPLAY_NAME, displayValue, INPUTS, SCRIPT, line));
+
+                return new ActionComposite(new ActionInsertSectionByProperty(sectionType, PROPERTY_DISPLAY_NAME, displayValue, stepToInsert, true),
+                        new ActionInsertLineInSection(sectionType, PROPERTY_DISPLAY_NAME, displayValue, line));
+            });
         }
 
         return this;
@@ -1479,30 +1582,22 @@ public class AzDoPipeline {
         }
 
         if (newLine != null) {
-            // Insert a PowerShell (pwsh) script before the PowerShell (pwsh) script that is searched for
-            ActionResult ar;
-            ActionInsertSectionByProperty actionPSScript = new ActionInsertSectionByProperty(STEP_SCRIPT_PWSH, PROPERTY_DISPLAY_NAME, displayValue, stepToInsert, true);
-            yamlDocumentEntryPoint.performAction (actionPSScript, STEP_SCRIPT_PWSH, "");
-
-            // Insert a new line to the "pwsh" script; the line contains a declaration of the function file created in the inserted step
-            ActionInsertLineInSection actionInsertLineInSection = new ActionInsertLineInSection(STEP_SCRIPT_PWSH, PROPERTY_DISPLAY_NAME, displayValue, newLine);
-            ar = yamlDocumentEntryPoint.performAction(actionInsertLineInSection, STEP_SCRIPT_PWSH, "");
-
-            if (ar == null || !ar.actionExecuted) {
-                // If it is not a "pwsh" script, it may be a "PowerShel@2" task. Btw, use the SECTION_TASK instead of the TASK_POWERSHELL_2
-                ActionInsertSectionByProperty actionPSTask = new ActionInsertSectionByProperty(SECTION_TASK, PROPERTY_DISPLAY_NAME, displayValue, stepToInsert, true);
-                yamlDocumentEntryPoint.performAction (actionPSTask, SECTION_TASK, "");
-
-                // Insert a new line to the "PowerShell@2" script; the line contains a declaration of the function file created in the inserted step
-                // The inline script in a "PowerShell@2" task is > inputs > script
-                ActionInsertLineInInnerSection actionInsertLineInInnerSection = new ActionInsertLineInInnerSection(SECTION_TASK,
-                        PROPERTY_DISPLAY_NAME,
-                        displayValue,
-                        INPUTS,
-                        SCRIPT,
-                        newLine);
-                yamlDocumentEntryPoint.performAction(actionInsertLineInInnerSection, TASK_POWERSHELL_2, "");
-            }
+            // Find the step of type 'pwsh' or 'PowerShell@2' task in one search.
+            // Insert a PowerShell (pwsh) script before the step that is found, and add a new line to the script of that step.
+            // The new line contains a declaration of the function file created in the inserted step.
+            // The inline script in a "PowerShell@2" task is > inputs > script
+            String displayName = SectionSelector.quote(displayValue);
+            SectionSelector selector = SectionSelector.compile(STEP_SCRIPT_PWSH + "[" + PROPERTY_DISPLAY_NAME + "=" + displayName + "], " +
+                    SECTION_TASK + "[" + TASK_POWERSHELL_2 + "][" + PROPERTY_DISPLAY_NAME + "=" + displayName + "]");
+            final String line = newLine;
+            yamlDocumentEntryPoint.performAction(selector, sectionType -> {
+                if (SECTION_TASK.equals(sectionType))
+                    return new ActionComposite(new ActionInsertSectionByProperty(SECTION_TASK, PROPERTY_DISPLAY_NAME, displayValue, stepToInsert, true),
+                            new ActionInsertLineInInnerSection(SECTION_TASK, PROPERTY_DISPLAY_NAME, displayValue, INPUTS, SCRIPT, line));
+
+                return new ActionComposite(new ActionInsertSectionByProperty(sectionType, PROPERTY_DISPLAY_NAME, displayValue, stepToInsert, true),
+                        new ActionInsertLineInSection(sectionType, PROPERTY_DISPLAY_NAME, displayValue, line));
+            });
         }
 
         return this;
@@ -2046,39 +2141,32 @@ public class AzDoPipeline {
                                 String sectionIdentifier,
                                 Map<String, Object> sectionToInsert,
                                 boolean insertBefore) {
-        int size = sectionTypes.size();
-        String sectionType;
-        ActionResult ar = null;
-        for (int i = 0; i < size; i++) {
-            sectionType = sectionTypes.get(i);
-            switch (actionType) {
-                case "ActionInsertSectionByProperty":
-                    ActionInsertSectionByProperty actionInsertSectionByProperty = new ActionInsertSectionByProperty(sectionType, property, sectionIdentifier, sectionToInsert, insertBefore);
-                    ar = yamlDocumentEntryPoint.performAction(actionInsertSectionByProperty, sectionType, "");
-                    break;
-
-                case "ActionInsertSection":
-                    ActionInsertSection actionInsertSection = new ActionInsertSection(sectionType, sectionIdentifier, sectionToInsert, insertBefore);
-                    ar = yamlDocumentEntryPoint.performAction(actionInsertSection, sectionType, sectionIdentifier);
-                    break;
-
-                case "ActionDeleteSectionByProperty":
-                    ActionDeleteSectionByProperty actionDeleteSectionByProperty = new ActionDeleteSectionByProperty(sectionType, property, sectionIdentifier);
-                    ar = yamlDocumentEntryPoint.performAction(actionDeleteSectionByProperty, sectionType, "");
-                    break;
-
-                case "ActionUpdateSectionByProperty":
-                    ActionUpdateSectionByProperty actionUpdateSectionByProperty = new ActionUpdateSectionByProperty(sectionType, property, sectionIdentifier, sectionToInsert);
-                    ar = yamlDocumentEntryPoint.performAction(actionUpdateSectionByProperty, sectionType, "");
-                    break;
-
-                default:
-                    break;
-            }
+        Function<String, Action> actionFactory;
+        switch (actionType) {
+            case "ActionInsertSectionByProperty":
+                actionFactory = sectionType -> new ActionInsertSectionByProperty(sectionType, property, sectionIdentifier, sectionToInsert, insertBefore);
+                break;
+
+            case "ActionInsertSection":
+                actionFactory = sectionType -> new ActionInsertSection(sectionType, sectionIdentifier, sectionToInsert, insertBefore);
+                break;
+
+            case "ActionDeleteSectionByProperty":
+                actionFactory = sectionType -> new ActionDeleteSectionByProperty(sectionType, property, sectionIdentifier);
+                break;
 
-            if (ar != null && ar.actionExecuted) {
+            case "ActionUpdateSectionByProperty":
+                actionFactory = sectionType -> new ActionUpdateSectionByProperty(sectionType, property, sectionIdentifier, sectionToInsert);
+                break;
+
+            default:
+                logger.warn("Action type \'{}\' is not supported", actionType);
                 return;
-            }
         }
+
+        // All section types are searched at once; the first section type (in the order of sectionTypes) that
+        // is found in any of the documents wins, as if the section types were searched one by one
+        SectionSelector selector = SectionSelector.of(sectionTypes, property, sectionIdentifier);
+        yamlDocumentEntryPoint.performAction(selector, actionFactory);
     }
 }
@@ -0,0 +1,156 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.utils;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/******************************************************************************************
+ An AzDoClient performs the calls to the Azure DevOps APIs for one user. It owns one HttpClient,
+ so the connections (including the TLS session) are kept alive and reused by all calls, instead
+ of creating a new connection pool for each call. The client prefers HTTP/2 and falls back to
+ HTTP/1.1 if the server does not support it. The headers, including the authorization header,
+ are computed once.
+ There is one AzDoClient per user and Personal Access Token in the JVM; see of().
+ *******************************************************************************************/
+public class AzDoClient {
+    private static final Log logger = Log.getLogger();
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(120);
+    private static final String APPLICATION_JSON = "application/json";
+    private static final HashMap<String, AzDoClient> clients = new HashMap<>();
+    private final HttpClient httpClient;
+    private final String[] headers;
+
+    private AzDoClient(String azdoUser, String azdoPat) {
+        String encodedString = Base64.getEncoder().encodeToString((azdoUser + ":" + azdoPat).getBytes(StandardCharsets.UTF_8));
+        headers = new String[] {
+                "Content-Type", APPLICATION_JSON,
+                "Accept", APPLICATION_JSON,
+                "Authorization", "Basic " + encodedString
+        };
+
+        // Daemon threads, so the client does not prevent the JVM from exiting
+        ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "azdo-client");
+            thread.setDaemon(true);
+            return thread;
+        });
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .executor(executor)
+                .build();
+    }
+
+    /******************************************************************************************
+     Returns the (shared) client of a user.
+     ******************************************************************************************/
+    public static AzDoClient of (String azdoUser, String azdoPat) {
+        String key = azdoUser + ":" + azdoPat;
+        synchronized (clients) {
+            AzDoClient client = clients.get(key);
+            if (client == null) {
+                client = new AzDoClient(azdoUser, azdoPat);
+                clients.put(key, client);
+            }
+            return client;
+        }
+    }
+
+    /******************************************************************************************
+     Perform an API call and wait for the response.
+     @param http The endpoint.
+     @param httpMethod The HTTP method, for example "GET" or "POST".
+     @param json The body; not used for a GET.
+     @return The response, or null if the call failed.
+     ******************************************************************************************/
+    public HttpResponse<String> send (String http, String httpMethod, String json) {
+        return send(http, httpMethod, json, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /******************************************************************************************
+     Same as send(http, httpMethod, json), but the body of the response is handled by
+     'bodyHandler'; for example, to read it as a stream.
+     ******************************************************************************************/
+    public <T> HttpResponse<T> send (String http, String httpMethod, String json, HttpResponse.BodyHandler<T> bodyHandler) {
+        logger.debug("==> Method: AzDoClient.send");
+        logger.debug("http: {}", http);
+        logger.debug("httpMethod: {}", httpMethod);
+
+        try {
+            HttpResponse<T> response = httpClient.send(createRequest(http, httpMethod, json), bodyHandler);
+            logResponse(response);
+            return response;
+        }
+        catch (InterruptedException e) {
+            logger.debug("Interrupted! {}", e);
+            Thread.currentThread().interrupt();
+        }
+        catch (Exception e) {
+            logger.debug("Exception: {}", e.getLocalizedMessage());
+        }
+
+        return null;
+    }
+
+    /******************************************************************************************
+     Perform an API call without waiting for the response.
+     @return A future that completes with the response; it completes exceptionally if the call
+             failed.
+     ******************************************************************************************/
+    public CompletableFuture<HttpResponse<String>> sendAsync (String http, String httpMethod, String json) {
+        return sendAsync(http, httpMethod, json, HttpResponse.BodyHandlers.ofString());
+    }
+
+    // See sendAsync(http, httpMethod, json) and send(http, httpMethod, json, bodyHandler)
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync (String http, String httpMethod, String json, HttpResponse.BodyHandler<T> bodyHandler) {
+        logger.debug("==> Method: AzDoClient.sendAsync");
+        logger.debug("http: {}", http);
+        logger.debug("httpMethod: {}", httpMethod);
+
+        return httpClient.sendAsync(createRequest(http, httpMethod, json), bodyHandler)
+                .whenComplete((response, e) -> {
+                    if (e != null)
+                        logger.debug("Exception: {}", e.getLocalizedMessage());
+                    else
+                        logResponse(response);
+                });
+    }
+
+    private HttpRequest createRequest (String http, String httpMethod, String json) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(http))
+                .timeout(REQUEST_TIMEOUT)
+                .headers(headers);
+        if ("GET".equals(httpMethod))
+            builder.GET();
+        else
+            builder.method(httpMethod, HttpRequest.BodyPublishers.ofString(json == null ? "" : json));
+
+        return builder.build();
+    }
+
+    private static void logResponse (HttpResponse<?> response) {
+        if (response == null) {
+            logger.debug("Response is null");
+            return;
+        }
+        logger.debug("AzDo API response: {}", response);
+
+        // check whether the HTTP status code is valid
+        if (response.statusCode() > 299) {
+            logger.debug("Statuscode > 299");
+        }
+    }
+}
@@ -0,0 +1,208 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.utils;
+
+import azdo.junit.TimelineRecord;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/******************************************************************************************
+ Parses the (json) responses of the Azure DevOps APIs. The response is read as a stream of
+ tokens, so it is not loaded into a tree of maps first; this matters for large responses, such
+ as the timeline of a big pipeline. Only the fields that are used are extracted; all other
+ fields, including nested objects and arrays, are skipped.
+ All methods close the stream. If the response is not valid json, an IOException is thrown.
+ *******************************************************************************************/
+public class AzDoResponseParser {
+    private static final Log logger = Log.getLogger();
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final String JSON_ELEMENT_VALUE = "value";
+    private static final String JSON_ELEMENT_RECORDS = "records";
+    private static final String[] BUILD_FIELDS = {"id", "buildNumber", "status", "result", "queueTime", "startTime", "_links.web.href"};
+    private static final String[] TIMELINE_RECORD_FIELDS = {"id", "parentId", "type", "name", "startTime", "finishTime", "state", "result"};
+
+    private AzDoResponseParser() {}
+
+    /******************************************************************************************
+     Returns the value of a field of the (top-level) object in the response; for example, the
+     id of a created repository.
+     @return The value, or null if the field is not present.
+     ******************************************************************************************/
+    public static String getField (InputStream body, String field) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                return null;
+            HashMap<String, String> object = readObject(parser, new String[] {field});
+            return object.get(field);
+        }
+    }
+
+    /******************************************************************************************
+     Searches the objects in the 'value' array of the response (the format of Azure DevOps list
+     responses) for the object of which 'key' has the value 'compareValue'.
+     @return The value of the field 'field' of the first object found, or null if no object
+             matches.
+     ******************************************************************************************/
+    public static String findInValue (InputStream body, String key, String compareValue, String field) throws IOException {
+        ArrayList<HashMap<String, String>> objects = readArray(body, JSON_ELEMENT_VALUE, new String[] {key, field});
+        int size = objects.size();
+        for (int index = 0; index < size; index++) {
+            HashMap<String, String> object = objects.get(index);
+            if (compareValue != null && compareValue.equals(object.get(key))) {
+                logger.debug("Found value {}", compareValue);
+                return object.get(field);
+            }
+        }
+
+        return null;
+    }
+
+    /******************************************************************************************
+     Returns the values of a field of all objects in the 'value' array of the response. Objects
+     without the field are skipped.
+     ******************************************************************************************/
+    public static ArrayList<String> getValues (InputStream body, String field) throws IOException {
+        ArrayList<HashMap<String, String>> objects = readArray(body, JSON_ELEMENT_VALUE, new String[] {field});
+        ArrayList<String> values = new ArrayList<>();
+        int size = objects.size();
+        for (int index = 0; index < size; index++) {
+            String value = objects.get(index).get(field);
+            if (value != null)
+                values.add(value);
+        }
+
+        return values;
+    }
+
+    /******************************************************************************************
+     Returns the builds in the 'value' array of a response of the build API.
+     ******************************************************************************************/
+    public static ArrayList<BuildStatus> getBuilds (InputStream body) throws IOException {
+        ArrayList<HashMap<String, String>> objects = readArray(body, JSON_ELEMENT_VALUE, BUILD_FIELDS);
+        ArrayList<BuildStatus> builds = new ArrayList<>();
+        int size = objects.size();
+        for (int index = 0; index < size; index++) {
+            builds.add(toBuildStatus(objects.get(index)));
+        }
+
+        return builds;
+    }
+
+    private static BuildStatus toBuildStatus (HashMap<String, String> object) {
+        BuildStatus build = new BuildStatus();
+        build.id = object.get("id");
+        build.buildNumber = object.get("buildNumber");
+        build.status = object.get("status");
+        build.result = object.get("result");
+        build.queueTime = object.get("queueTime");
+        build.startTime = object.get("startTime");
+        build.webUrl = object.get("_links.web.href");
+        return build;
+    }
+
+    /******************************************************************************************
+     Returns the records of a response of the build timeline API. A field with the value null is
+     returned as an empty string; a field that is not present stays null.
+     ******************************************************************************************/
+    public static ArrayList<TimelineRecord> getTimelineRecords (InputStream body) throws IOException {
+        ArrayList<HashMap<String, String>> objects = readArray(body, JSON_ELEMENT_RECORDS, TIMELINE_RECORD_FIELDS);
+        ArrayList<TimelineRecord> timelineRecords = new ArrayList<>();
+        int size = objects.size();
+        for (int index = 0; index < size; index++) {
+            HashMap<String, String> object = objects.get(index);
+            TimelineRecord timelineRecord = new TimelineRecord();
+            timelineRecord.id = getOrEmpty(object, "id");
+            timelineRecord.parentId = getOrEmpty(object, "parentId");
+            timelineRecord.type = getOrEmpty(object, "type");
+            timelineRecord.name = getOrEmpty(object, "name");
+            timelineRecord.startTime = getOrEmpty(object, "startTime");
+            timelineRecord.finishTime = getOrEmpty(object, "finishTime");
+            timelineRecord.state = getOrEmpty(object, "state");
+            timelineRecord.result = getOrEmpty(object, "result");
+            timelineRecords.add(timelineRecord);
+        }
+
+        return timelineRecords;
+    }
+
+    private static String getOrEmpty (HashMap<String, String> object, String field) {
+        if (!object.containsKey(field))
+            return null;
+        String value = object.get(field);
+        return value == null ? "" : value;
+    }
+
+    // Read the objects of a top-level array; other top-level fields are skipped
+    private static ArrayList<HashMap<String, String>> readArray (InputStream body, String arrayName, String[] fields) throws IOException {
+        ArrayList<HashMap<String, String>> objects = new ArrayList<>();
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                return objects;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (!arrayName.equals(name) || token != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    if (token == JsonToken.START_OBJECT)
+                        objects.add(readObject(parser, fields));
+                    else
+                        parser.skipChildren();
+                }
+            }
+        }
+
+        return objects;
+    }
+
+    /*
+        Read the requested fields of the object at the current START_OBJECT token. A field of a
+        nested object is requested by its path, for example "_links.web.href".
+        A field with the value null is added with the value null.
+     */
+    private static HashMap<String, String> readObject (JsonParser parser, String[] fields) throws IOException {
+        HashMap<String, String> object = new HashMap<>();
+        readObject(parser, "", fields, object);
+        return object;
+    }
+
+    private static void readObject (JsonParser parser, String prefix, String[] fields, HashMap<String, String> object) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String path = prefix + parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT && isParentOf(path, fields))
+                readObject(parser, path + ".", fields, object);
+            else if (token.isScalarValue() && contains(fields, path))
+                object.put(path, token == JsonToken.VALUE_NULL ? null : parser.getValueAsString());
+            else
+                parser.skipChildren();
+        }
+    }
+
+    private static boolean contains (String[] fields, String path) {
+        for (int index = 0; index < fields.length; index++) {
+            if (fields[index].equals(path))
+                return true;
+        }
+
+        return false;
+    }
+
+    private static boolean isParentOf (String path, String[] fields) {
+        for (int index = 0; index < fields.length; index++) {
+            if (fields[index].startsWith(path + "."))
+                return true;
+        }
+
+        return false;
+    }
+}
@@ -3,21 +3,18 @@ package azdo.utils;
 import azdo.junit.RunResult;
 import azdo.junit.TimelineRecord;
 import org.eclipse.jgit.api.Git;
-import org.yaml.snakeyaml.Yaml;
 import java.io.IOException;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
+import java.io.InputStream;
 import java.net.http.HttpResponse;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
-import java.util.Base64;
 import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
 import static azdo.utils.Constants.*;
 
@@ -35,13 +32,13 @@ public class AzDoUtils {
     private static final String TAB = "\t";
     private static final String TWO_TAB = "\t\t";
     private static final String THREE_TAB = "\t\t\t";
-    private static final String APPLICATION_JSON = "application/json";
     private static final String RESPONSE_IS = "Response is: {}";
+    private static final String CANNOT_PARSE_RESPONSE = "Cannot parse the response: {}";
     private static final String REPOSITORY_ID_IS = "Repository id is: {}";
-    private static final String JSON_ELEMENT_VALUE = "value";
-    private static final String JSON_ELEMENT_RECORDS = "records";
     private static final String JSON_ELEMENT_NAME = "name";
     private static final String JSON_ELEMENT_ID = "id";
+    private static final long MIN_POLL_INTERVAL_MS = 2000;
+    private static final double POLL_JITTER = 0.2; // The poll interval varies +/- 20%
     private enum HttpMethod {GET, PUT, POST, PATCH}
     private static boolean test = false;
 
@@ -49,6 +46,7 @@ public class AzDoUtils {
     /******************************************************************************************
      Perform an Azure DevOps API call. This is a generic method to call an Azure DeVOps API.
      The endpoint, HTTP method and body (json) must be provided.
+     The call is performed by the (shared) AzDoClient of the user.
      *******************************************************************************************/
     public static HttpResponse<String> callApi (String azdoUser,
                                                 String azdoPat,
@@ -58,58 +56,29 @@ public class AzDoUtils {
         if (test)
             return null;
 
-        try {
-            logger.debug("==> Method: AzDoUtils.callApi");
-            logger.debug("http: {}", http);
-            logger.debug("httpMethod: {}", httpMethod);
-            logger.debug("json: {}", json);
-
-            String encodedString = Base64.getEncoder().encodeToString((azdoUser + ":" + azdoPat).getBytes());
-            HttpClient client = HttpClient.newHttpClient();
-            HttpRequest request;
-            if (httpMethod == AzDoUtils.HttpMethod.GET) {
-                request = HttpRequest.newBuilder()
-                        .uri(URI.create(http))
-                        .setHeader("Content-Type", APPLICATION_JSON)
-                        .setHeader("Accept", APPLICATION_JSON)
-                        .setHeader("Authorization", "Basic " + encodedString)
-                        .GET()
-                        .build();
-            } else {
-                request = HttpRequest.newBuilder()
-                        .uri(URI.create(http))
-                        .setHeader("Content-Type", APPLICATION_JSON)
-                        .setHeader("Accept", APPLICATION_JSON)
-                        .setHeader("Authorization", "Basic " + encodedString)
-                        .method(httpMethod.toString(), HttpRequest.BodyPublishers.ofString(json))
-                        .build();
-            }
+        logger.debug("==> Method: AzDoUtils.callApi");
+        logger.debug("json: {}", json);
 
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            if (response == null) {
-                logger.debug("Response is null");
-            }
-            else {
-                logger.debug("AzDo API response: {}", response);
-
-                // check whether the HTTP status code is valid
-                if (response.statusCode() > 299) {
-                    logger.debug("Statuscode > 299");
-                }
-            }
+        return AzDoClient.of(azdoUser, azdoPat).send(http, httpMethod.toString(), json);
+    }
 
-            return response;
-        }
+    /******************************************************************************************
+     Same as callApi(), but the body of the response is returned as a stream, so it can be parsed
+     by AzDoResponseParser without reading it into a String first. The stream must be closed by
+     the caller; the methods of AzDoResponseParser do this.
+     *******************************************************************************************/
+    private static HttpResponse<InputStream> callApiAsStream (String azdoUser,
+                                                              String azdoPat,
+                                                              String http,
+                                                              AzDoUtils.HttpMethod httpMethod,
+                                                              String json) {
+        if (test)
+            return null;
 
-        catch (InterruptedException e) {
-            logger.debug("Interrupted! {}", e);
-            Thread.currentThread().interrupt();
-        }
-        catch (Exception e) {
-            logger.debug("Exception: {}", e.getLocalizedMessage());
-        }
+        logger.debug("==> Method: AzDoUtils.callApiAsStream");
+        logger.debug("json: {}", json);
 
-        return null;
+        return AzDoClient.of(azdoUser, azdoPat).send(http, httpMethod.toString(), json, HttpResponse.BodyHandlers.ofInputStream());
     }
 
     /******************************************************************************************
@@ -183,13 +152,16 @@ public class AzDoUtils {
                 initializeMaster (azdoUser, azdoPat, targetPath, repositoryName, organization, project);
             }
 
-            // Always clone
-            GitUtils.cloneAzdoToLocal(targetPath,
+            // Always clone; an existing clone is reused
+            Git git = GitUtils.cloneOrFetchAzdoToLocal(targetPath,
                     repositoryName,
                     azdoUser,
                     azdoPat,
                     organization,
-                    project);
+                    project,
+                    GitUtils.BRANCH_MASTER);
+            if (git != null)
+                git.close();
         }
         catch (Exception e) {
             logger.debug("Exception occurred. Cannot create a new repository: {}", e);
@@ -209,12 +181,14 @@ public class AzDoUtils {
                                           String project) {
         logger.debug("Initialize main branch with a README");
         Utils.createDirectory(targetPath);
-        GitUtils.cloneAzdoToLocal(targetPath,
+        Git clone = GitUtils.cloneAzdoToLocal(targetPath,
                 repositoryName,
                 azdoUser,
                 azdoPat,
                 organization,
                 project);
+        if (clone != null)
+            clone.close();
         Path newFilePath = Paths.get(targetPath + "/readme.md");
         newFilePath = newFilePath.normalize();
         try {
@@ -314,17 +288,15 @@ public class AzDoUtils {
                 "?" +
                 azdoProjectApiVersion;
 
-        HttpResponse<String> response = callApi(azdoUser, azdoPat, http, AzDoUtils.HttpMethod.GET, null);
+        HttpResponse<InputStream> response = callApiAsStream(azdoUser, azdoPat, http, AzDoUtils.HttpMethod.GET, null);
 
         // Get the project id from the response
-        Yaml yaml = new Yaml();
-        String name = null;
         if (response != null) {
-            Map<String, Object> yamlMap = yaml.load(response.body().toString());
-            logger.debug(RESPONSE_IS, yamlMap.toString());
-            if (yamlMap.get(JSON_ELEMENT_VALUE) instanceof ArrayList) {
-                ArrayList<Object> arr = (ArrayList<Object>) yamlMap.get(JSON_ELEMENT_VALUE);
-                projectId = iterateYamlArrayListAndFindElement (arr, JSON_ELEMENT_NAME, project, JSON_ELEMENT_ID);
+            try {
+                projectId = AzDoResponseParser.findInValue(response.body(), JSON_ELEMENT_NAME, project, JSON_ELEMENT_ID);
+            }
+            catch (IOException e) {
+                logger.debug(CANNOT_PARSE_RESPONSE, e.getMessage());
             }
             logger.debug("Project id is: {}", projectId);
         }
@@ -334,8 +306,9 @@ public class AzDoUtils {
 
     /******************************************************************************************
      Run a pipeline.
+     @return The id of the queued build (pipeline run), or null if the pipeline is not queued.
      *******************************************************************************************/
-    public static void callPipelineRunApi (String azdoUser,
+    public static String callPipelineRunApi (String azdoUser,
                                            String azdoPat,
                                            String azdoEndpoint,
                                            String azdoBuildApi,
@@ -347,6 +320,7 @@ public class AzDoUtils {
         logger.debug("pipelineId: {}", pipelineId);
         logger.debug("branchName: {}", branchName);
 
+        String buildId = null;
         if (pipelineId == null)
         {
             logger.debug("Nothing to run; the pipelineId is null");
@@ -366,10 +340,11 @@ public class AzDoUtils {
                     TAB + DOUBLE_QUOTE + "sourceBranch" + DOUBLE_QUOTE + ": " + DOUBLE_QUOTE + sourceBranch + DOUBLE_QUOTE + NEXTLINE +
                     BRACKET_CLOSE;
 
-            HttpResponse<String> response = callApi(azdoUser, azdoPat, http, AzDoUtils.HttpMethod.POST, json);
+            HttpResponse<InputStream> response = callApiAsStream(azdoUser, azdoPat, http, AzDoUtils.HttpMethod.POST, json);
             if (response != null) {
                 logger.debug(RESPONSE_IS, response);
                 if (response.statusCode() > 299) {
+                    closeQuietly(response.body());
                     // Make the error explicit, because otherwise it is unclear why the pipeline did not run
                     logger.error("Error while trying to run the pipeline. This can be caused by various issues:");
                     logger.error("- One of the output yaml files contains a syntax error");
@@ -377,14 +352,39 @@ public class AzDoUtils {
                     logger.error("- A resource cannot be accessed/retrieved");
                     logger.error("- A mandatory parameter - used by a template - is empty");
                     logger.error("- A pipeline decorator enforces a specific precondition");
-                    if (continueOnError) return; else System. exit(1);
+                    if (continueOnError) return null; else System. exit(1);
                 }
+
+                // Get the id of the queued build from the response
+                try {
+                    buildId = AzDoResponseParser.getField(response.body(), JSON_ELEMENT_ID);
+                }
+                catch (IOException e) {
+                    logger.debug(CANNOT_PARSE_RESPONSE, e.getMessage());
+                }
+                logger.debug("Build id is: {}", buildId);
             }
         }
+
+        return buildId;
+    }
+
+    private static void closeQuietly (InputStream body) {
+        try {
+            body.close();
+        }
+        catch (IOException e) {
+            logger.debug("Cannot close the response: {}", e.getMessage());
+        }
     }
 
     /******************************************************************************************
-     Wait until the build is finished and return the result of the pipeline run.
+     Wait until the last queued build of a pipeline is finished and return the result of the
+     pipeline run. This is used if the id of the build is unknown; if it is known, the build is
+     followed by the RunStatusMultiplexer instead.
+     The poll interval is adaptive; the build is polled frequently while it is queued or just
+     started, and less frequently the longer it runs, with 'pollFrequency' (in seconds) as the
+     maximum interval. The timeout (in seconds) is measured from the moment the build was queued.
      *******************************************************************************************/
     public static RunResult callRunResult (String azdoUser,
                                            String azdoPat,
@@ -402,13 +402,13 @@ public class AzDoUtils {
 
         RunResult runResult = new RunResult();
         Instant start = Instant.now();
-        HttpResponse<String> response;
-        Yaml yaml;
         String status = null;
         String result = null;
         String buildNumber = null;
         String id = null;
         String webUrl = null;
+        Instant queueTime = null;
+        Instant startTime = null;
         boolean firstPoll = true;
 
         long timeElapsed = 0;
@@ -420,64 +420,58 @@ public class AzDoUtils {
                 "&" +
                 azdoBuildApiVersion;
 
-        String json = "{}";
-
         /******************************************************************************************
          1. Poll the API until the status is completed or timed out.
-            Polling is determined using a certain frequency.
+            The poll interval depends on the status of the build; see getPollInterval().
          *******************************************************************************************/
         boolean runEnds = false;
         while (!runEnds) {
 
             // Call the API
             logger.debug("Call the API");
-            response = callApi(azdoUser, azdoPat, http, HttpMethod.GET, json);
+            HttpResponse<InputStream> response = callApiAsStream(azdoUser, azdoPat, http, HttpMethod.GET, null);
 
             // Get the result from the response
-            yaml = new Yaml();
             if (response != null) {
-                Map<String, Object> yamlMap = yaml.load(response.body().toString());
-                if (yamlMap == null) {
+                ArrayList<BuildStatus> builds = null;
+                try {
+                    builds = AzDoResponseParser.getBuilds(response.body());
+                }
+                catch (IOException e) {
+                    logger.debug(CANNOT_PARSE_RESPONSE, e.getMessage());
+                }
+                if (builds == null) {
                     logger.error("Retrieving the pipeline result failed");
                     if (continueOnError) return null; else System. exit(1);
                 }
 
-                logger.debug(RESPONSE_IS, yamlMap.toString());
-                if (yamlMap.get(JSON_ELEMENT_VALUE) instanceof ArrayList) {
-                    ArrayList<Object> arr = (ArrayList<Object>) yamlMap.get(JSON_ELEMENT_VALUE);
-                    if (arr != null) {
-                        int size = arr.size();
-
-                        // Go through list of values (should be only 1)
-                        for (int counter = 0; counter < size; counter++) {
-                            LinkedHashMap<String, Object> value = ((LinkedHashMap<String, Object>) arr.get(counter));
-                            if (value.get("status") != null)
-                                status = value.get("status").toString();
-                            if (value.get("result") != null)
-                                result = value.get("result").toString();
-                            if (value.get("buildNumber") != null)
-                                buildNumber = value.get("buildNumber").toString();
-                            if (value.get("id") != null)
-                                id = value.get("id").toString();
-                            if (value.get("_links") != null) {
-                                LinkedHashMap<String, Object> links = ((LinkedHashMap<String, Object>) value.get("_links"));
-                                if (links.get("web") != null) {
-                                    LinkedHashMap<String, Object> web = ((LinkedHashMap<String, Object>) links.get("web"));
-                                    if (web.get("href") != null)
-                                        webUrl = web.get("href").toString();
-                                }
-                            }
-                        }
-                    }
+                // Go through list of builds (should be only 1)
+                int size = builds.size();
+                for (int counter = 0; counter < size; counter++) {
+                    BuildStatus build = builds.get(counter);
+                    if (build.status != null)
+                        status = build.status;
+                    if (build.result != null)
+                        result = build.result;
+                    if (build.buildNumber != null)
+                        buildNumber = build.buildNumber;
+                    if (build.id != null)
+                        id = build.id;
+                    if (build.webUrl != null)
+                        webUrl = build.webUrl;
+                    if (build.queueTime != null)
+                        queueTime = parseTime(build.queueTime);
+                    if (build.startTime != null)
+                        startTime = parseTime(build.startTime);
                 }
             }
 
             runResult = new RunResult(result, status, id);
 
-            // Wait until the next poll is allowed
-            Utils.wait(pollFrequency * 1000);
-            Instant finish = Instant.now();
-            timeElapsed = Duration.between(start, finish).toSeconds();
+            // Measure from the queue time; use the start of polling if the build was not found (yet),
+            // or if the queue time is later because the clocks differ
+            Instant since = (queueTime != null && queueTime.isBefore(start)) ? queueTime : start;
+            timeElapsed = Duration.between(since, Instant.now()).toSeconds();
             logger.debug("Time elapsed: {}", Long.toString(timeElapsed));
 
             if (runResult.result != RunResult.Result.none) {
@@ -487,106 +481,125 @@ public class AzDoUtils {
                 runResult.status = RunResult.Status.timeout;
                 runEnds = true;
             }
-            String pipelineResult = runResult.result.toString();
             logger.info(DEMARCATION);
             if (firstPoll) {
                 logger.info("Buildnumber: {}", buildNumber);
                 logger.info("Pipeline url: {}", webUrl);
                 logger.info("BuildId: {}", runResult.buildId);
             }
-            if (runResult.status == RunResult.Status.timeout) {
-                logger.warn("Status: {}", runResult.status.toString());
-                logger.warn("Timeout on retrieval of the run results; check whether an approval is needed");
-                logger.warn("A timeout also occurs if the pipeline is queued for a long time");
-            }
-            else
-                logger.info("Status: {}", runResult.status.toString());
-
-            String color = LIGHT_GREEN;
-            if (RunResult.Result.failed.toString().equals(pipelineResult))
-                color = LIGHT_RED;
-            if (RunResult.Result.canceled.toString().equals(pipelineResult))
-                color = YELLOW;
-            if (RunResult.Result.partiallySucceeded.toString().equals(pipelineResult))
-                color = YELLOW;
-            if (RunResult.Result.succeededWithIssues.toString().equals(pipelineResult))
-                color = YELLOW;
-
-            logger.infoColor(color, "Result: {}", runResult.result.toString());
+            logRunStatus(runResult);
 
             firstPoll = false;
+
+            // Wait until the next poll is allowed, but not beyond the timeout
+            if (!runEnds) {
+                long pollInterval = getPollInterval(runResult.status, startTime, pollFrequency);
+                long remaining = (timeout - timeElapsed + 1) * 1000L;
+                Utils.wait((int) Math.max(0, Math.min(pollInterval, remaining)));
+            }
         }
 
         /******************************************************************************************
          2. Retrieve the details of the build using the timeline.
          *******************************************************************************************/
-        http = azdoEndpoint +
+        callTimelineApi(azdoUser, azdoPat, azdoEndpoint, azdoBuildApi, azdoBuildApiVersion, id, runResult);
+
+        return runResult;
+    }
+
+    /******************************************************************************************
+     Log the status and result of a pipeline run.
+     *******************************************************************************************/
+    static void logRunStatus (RunResult runResult) {
+        String pipelineResult = runResult.result.toString();
+        if (runResult.status == RunResult.Status.timeout) {
+            logger.warn("Status: {}", runResult.status.toString());
+            logger.warn("Timeout on retrieval of the run results; check whether an approval is needed");
+            logger.warn("A timeout also occurs if the pipeline is queued for a long time");
+        }
+        else
+            logger.info("Status: {}", runResult.status.toString());
+
+        String color = LIGHT_GREEN;
+        if (RunResult.Result.failed.toString().equals(pipelineResult))
+            color = LIGHT_RED;
+        if (RunResult.Result.canceled.toString().equals(pipelineResult))
+            color = YELLOW;
+        if (RunResult.Result.partiallySucceeded.toString().equals(pipelineResult))
+            color = YELLOW;
+        if (RunResult.Result.succeededWithIssues.toString().equals(pipelineResult))
+            color = YELLOW;
+
+        logger.infoColor(color, "Result: {}", runResult.result.toString());
+    }
+
+    /******************************************************************************************
+     Retrieve the details of a build using the timeline and add them to the run result.
+     *******************************************************************************************/
+    public static void callTimelineApi (String azdoUser,
+                                        String azdoPat,
+                                        String azdoEndpoint,
+                                        String azdoBuildApi,
+                                        String azdoBuildApiVersion,
+                                        String buildId,
+                                        RunResult runResult) {
+        logger.debug("==> Method: AzDoUtils.callTimelineApi");
+        logger.debug("buildId: {}", buildId);
+
+        String http = azdoEndpoint +
                 azdoBuildApi +
                 "/" +
-                id +
+                buildId +
                 "/timeline" +
                 "?" +
                 azdoBuildApiVersion;
 
-        response = callApi(azdoUser, azdoPat, http, HttpMethod.GET, null);
+        HttpResponse<InputStream> response = callApiAsStream(azdoUser, azdoPat, http, HttpMethod.GET, null);
 
-        // Get the build timeline from the response
+        // Get the build timeline from the response and add the records to runResult
         if (response != null) {
-            yaml = new Yaml();
-            Map<String, Object> yamlMap = yaml.load(response.body().toString());
-            if (yamlMap != null) {
-                logger.debug(RESPONSE_IS, yamlMap.toString());
-
-                // Parse the json response and add the result to runResult
-                if (yamlMap.get(JSON_ELEMENT_RECORDS) instanceof ArrayList) {
-                    int sizeRecords = 0;
-                    ArrayList<Object> records = (ArrayList<Object>) yamlMap.get(JSON_ELEMENT_RECORDS);
-                    if (records != null) {
-                        sizeRecords = records.size();
-
-                        // Go through list of records
-                        Map<String, Object> map;
-                        TimelineRecord timelineRecord;
-                        String key;
-                        String value;
-                        for (int recordCounter = 0; recordCounter < sizeRecords; recordCounter++) {
-                            map = (Map<String, Object>) records.get(recordCounter);
-                            timelineRecord = new TimelineRecord();
-                            for (Map.Entry<String, Object> entry : map.entrySet()) {
-                                if (entry.getKey() != null)
-                                    key = entry.getKey().toString();
-                                else key = "";
-                                if (entry.getValue() != null)
-                                    value = entry.getValue().toString();
-                                else value = "";
-
-                                if ("id".equals(key))
-                                    timelineRecord.id = value;
-                                if ("parentId".equals(key))
-                                    timelineRecord.parentId = value;
-                                if ("type".equals(key))
-                                    timelineRecord.type = value;
-                                if ("name".equals(key))
-                                    timelineRecord.name = value;
-                                if ("startTime".equals(key))
-                                    timelineRecord.startTime = value;
-                                if ("finishTime".equals(key))
-                                    timelineRecord.finishTime = value;
-                                if ("state".equals(key))
-                                    timelineRecord.state = value;
-                                if ("result".equals(key))
-                                    timelineRecord.result = value;
-                            }
-                            runResult.addTimelineRecord(timelineRecord);
-                        }
-                    }
+            try {
+                ArrayList<TimelineRecord> timelineRecords = AzDoResponseParser.getTimelineRecords(response.body());
+                int sizeRecords = timelineRecords.size();
+                for (int recordCounter = 0; recordCounter < sizeRecords; recordCounter++) {
+                    runResult.addTimelineRecord(timelineRecords.get(recordCounter));
                 }
+                logger.debug("Number of timeline records: {}", sizeRecords);
             }
-            else
+            catch (IOException e) {
                 logger.error("Retrieving the build timeline failed; just continue");
+                logger.debug(CANNOT_PARSE_RESPONSE, e.getMessage());
+            }
         }
+    }
 
-        return runResult;
+    /******************************************************************************************
+     Determine the time (in milliseconds) until the next poll of a build. While the build is
+     queued, it is polled every 2 seconds, so the start is noticed quickly. After the build
+     started, the interval is 10% of the time it is running, with a minimum of 2 seconds and a
+     maximum of 'pollFrequency' seconds; a short run is finished soon, while the result of a long
+     run is not expected any time soon.
+     A random variation (jitter) is added, so builds that are started together are not polled
+     at the same moment.
+     *******************************************************************************************/
+    static long getPollInterval (RunResult.Status status, Instant startTime, int pollFrequency) {
+        long maxInterval = Math.max(MIN_POLL_INTERVAL_MS, pollFrequency * 1000L);
+        long interval = MIN_POLL_INTERVAL_MS;
+        if (status == RunResult.Status.inProgress && startTime != null)
+            interval = Math.max(MIN_POLL_INTERVAL_MS, Math.min(maxInterval, Duration.between(startTime, Instant.now()).toMillis() / 10));
+        double jitter = 1.0 + POLL_JITTER * (2.0 * ThreadLocalRandom.current().nextDouble() - 1.0);
+        return (long) (interval * jitter);
+    }
+
+    // Returns null if the time cannot be parsed
+    static Instant parseTime (String time) {
+        try {
+            return Instant.parse(time);
+        }
+        catch (DateTimeParseException e) {
+            logger.debug("Cannot parse time {}", time);
+            return null;
+        }
     }
 
     /******************************************************************************************
@@ -624,17 +637,17 @@ public class AzDoUtils {
                 TWO_TAB + BRACKET_CLOSE + NEXTLINE +
                 TAB + BRACKET_CLOSE + NEXTLINE +
                 BRACKET_CLOSE;
-        HttpResponse<String> response = callApi(azdoUser, azdoPat, http, AzDoUtils.HttpMethod.POST, json);
+        HttpResponse<InputStream> response = callApiAsStream(azdoUser, azdoPat, http, AzDoUtils.HttpMethod.POST, json);
 
         // Get the pipeline id from the response
-        Yaml yaml = new Yaml();
         if (response != null) {
-            Map<String, Object> yamlMap = yaml.load(response.body().toString());
-            logger.debug(RESPONSE_IS, yamlMap.toString());
-            if (yamlMap.get(JSON_ELEMENT_ID) != null) {
-                pipelineId = yamlMap.get(JSON_ELEMENT_ID).toString();
-                logger.debug("Pipeline id is: {}", pipelineId);
+            try {
+                pipelineId = AzDoResponseParser.getField(response.body(), JSON_ELEMENT_ID);
+            }
+            catch (IOException e) {
+                logger.debug(CANNOT_PARSE_RESPONSE, e.getMessage());
             }
+            logger.debug("Pipeline id is: {}", pipelineId);
         }
 
         return pipelineId;
@@ -659,17 +672,15 @@ public class AzDoUtils {
                 "?" +
                 azdoPipelinesApiVersion;
 
-        HttpResponse<String> response = callApi(azdoUser, azdoPat, http, AzDoUtils.HttpMethod.GET, null);
+        HttpResponse<InputStream> response = callApiAsStream(azdoUser, azdoPat, http, AzDoUtils.HttpMethod.GET, null);
 
         // Get the pipeline id from the response
-        Yaml yaml = new Yaml();
-        String name = null;
         if (response != null) {
-            Map<String, Object> yamlMap = yaml.load(response.body().toString());
-            logger.debug(RESPONSE_IS, yamlMap.toString());
-            if (yamlMap.get(JSON_ELEMENT_VALUE) instanceof ArrayList) {
-                ArrayList<Object> arr = (ArrayList<Object>) yamlMap.get(JSON_ELEMENT_VALUE);
-                pipelineId = iterateYamlArrayListAndFindElement (arr, JSON_ELEMENT_NAME, pipelineName, JSON_ELEMENT_ID);
+            try {
+                pipelineId = AzDoResponseParser.findInValue(response.body(), JSON_ELEMENT_NAME, pipelineName, JSON_ELEMENT_ID);
+            }
+            catch (IOException e) {
+                logger.debug(CANNOT_PARSE_RESPONSE, e.getMessage());
             }
             logger.debug("Pipeline id is: {}", pipelineId);
         }
@@ -704,15 +715,16 @@ public class AzDoUtils {
                 TWO_TAB + DOUBLE_QUOTE + JSON_ELEMENT_ID + DQUOTE_SCOL_DQUOTE + projectId + DOUBLE_QUOTE + NEXTLINE +
                 TAB + BRACKET_CLOSE + NEXTLINE +
                 BRACKET_CLOSE;
-        HttpResponse<String> response = callApi(azdoUser, azdoPat, http, HttpMethod.POST, json);
+        HttpResponse<InputStream> response = callApiAsStream(azdoUser, azdoPat, http, HttpMethod.POST, json);
 
+        // Get the repository id from the response
         if (response != null) {
-            logger.debug("AzDo API response body: {}", response.body().toString());
-
-            // Get the repository id from the response
-            Yaml yaml = new Yaml();
-            Map<String, Object> yamlMap = yaml.load(response.body().toString());
-            repositoryId = yamlMap.get(JSON_ELEMENT_ID).toString();
+            try {
+                repositoryId = AzDoResponseParser.getField(response.body(), JSON_ELEMENT_ID);
+            }
+            catch (IOException e) {
+                logger.debug(CANNOT_PARSE_RESPONSE, e.getMessage());
+            }
             logger.debug(REPOSITORY_ID_IS, repositoryId);
         }
 
@@ -744,15 +756,16 @@ public class AzDoUtils {
         String json = BRACKET_OPEN_NEXTLINE +
                 TAB + DOUBLE_QUOTE + "defaultBranch" + DQUOTE_SCOL_DQUOTE + branchName + DOUBLE_QUOTE + NEXTLINE +
                 BRACKET_CLOSE;
-        HttpResponse<String> response = callApi(azdoUser, azdoPat, http, HttpMethod.PATCH, json);
+        HttpResponse<InputStream> response = callApiAsStream(azdoUser, azdoPat, http, HttpMethod.PATCH, json);
 
+        // Get the repository id from the response
         if (response != null) {
-            logger.debug("AzDo API response body: {}", response.body().toString());
-
-            // Get the repository id from the response
-            Yaml yaml = new Yaml();
-            Map<String, Object> yamlMap = yaml.load(response.body().toString());
-            repositoryId = yamlMap.get(JSON_ELEMENT_ID).toString();
+            try {
+                repositoryId = AzDoResponseParser.getField(response.body(), JSON_ELEMENT_ID);
+            }
+            catch (IOException e) {
+                logger.debug(CANNOT_PARSE_RESPONSE, e.getMessage());
+            }
             logger.debug(REPOSITORY_ID_IS, repositoryId);
         }
 
@@ -780,17 +793,15 @@ public class AzDoUtils {
                 "?" +
                 azdoGitApiVersion;
 
-        HttpResponse<String> response = callApi(azdoUser, azdoPat, http, AzDoUtils.HttpMethod.GET, null);
+        HttpResponse<InputStream> response = callApiAsStream(azdoUser, azdoPat, http, AzDoUtils.HttpMethod.GET, null);
 
         // Get the repository id from the response
-        Yaml yaml = new Yaml();
-        String name;
         if (response != null) {
-            Map<String, Object> yamlMap = yaml.load(response.body().toString());
-            logger.debug(RESPONSE_IS, yamlMap.toString());
-            if (yamlMap.get(JSON_ELEMENT_VALUE) instanceof ArrayList) {
-                ArrayList<Object> arr = (ArrayList<Object>) yamlMap.get(JSON_ELEMENT_VALUE);
-                repositoryId = iterateYamlArrayListAndFindElement (arr, JSON_ELEMENT_NAME, repositoryName, JSON_ELEMENT_ID);
+            try {
+                repositoryId = AzDoResponseParser.findInValue(response.body(), JSON_ELEMENT_NAME, repositoryName, JSON_ELEMENT_ID);
+            }
+            catch (IOException e) {
+                logger.debug(CANNOT_PARSE_RESPONSE, e.getMessage());
             }
             logger.debug(REPOSITORY_ID_IS, repositoryId);
         }
@@ -845,32 +856,17 @@ public class AzDoUtils {
                 "?" +
                 azdoPipelinesApiVersion;
 
-        HttpResponse<String> response = callApi(azdoUser, azdoPat, http, AzDoUtils.HttpMethod.GET, null);
+        HttpResponse<InputStream> response = callApiAsStream(azdoUser, azdoPat, http, AzDoUtils.HttpMethod.GET, null);
 
-        // Get the list of properties from the response
-        Yaml yaml = new Yaml();
-        String name = null;
+        // Get the list of properties (the names) from the response
         if (response != null) {
-            Map<String, Object> yamlMap = yaml.load(response.body().toString());
-            logger.debug(RESPONSE_IS, yamlMap.toString());
-            if (yamlMap.get(JSON_ELEMENT_VALUE) instanceof ArrayList) {
-                ArrayList<Object> list = (ArrayList<Object>) yamlMap.get(JSON_ELEMENT_VALUE);
-                int index;
-                int size = list.size();
-                for (index = 0; index < size; index++) {
-                    if (list.get(index) instanceof Map) {
-                        Map<String, Object> map = (Map<String, Object>) list.get(index);
-                        for (Map.Entry<String, Object> entry : map.entrySet()) {
-
-                            // Add the property values to the list
-                            logger.debug("entry.getKey(): {}", entry.getKey());
-                            logger.debug("entry.getValue(): {}", entry.getValue());
-                            if ("name".equals(entry.getKey()))
-                                propertyList.add(entry.getValue().toString());
-                        }
-                    }
-                }
+            try {
+                propertyList = AzDoResponseParser.getValues(response.body(), JSON_ELEMENT_NAME);
+            }
+            catch (IOException e) {
+                logger.debug(CANNOT_PARSE_RESPONSE, e.getMessage());
             }
+            logger.debug("Properties: {}", propertyList);
         }
         return propertyList;
     }
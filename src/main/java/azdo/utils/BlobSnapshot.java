@@ -0,0 +1,80 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.utils;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/******************************************************************************************
+ The BlobSnapshot contains the blob id (the SHA-1 of the content, as used by Git) of each source
+ file that was inserted into the object database of a repository, together with the size and
+ modification time of the file at that moment. If the file is inserted again while it is
+ unchanged, the blob id is reused without reading the file.
+ The snapshot is shared by all AzDoPipeline objects in the JVM; there is one entry per
+ repository and file.
+ *******************************************************************************************/
+public class BlobSnapshot {
+    private static final Log logger = Log.getLogger();
+    private static final HashMap<String, SnapshotEntry> snapshot = new HashMap<>();
+
+    private static class SnapshotEntry {
+        long size;
+        long lastModified; // In nanoseconds, if the file system supports it
+        ObjectId blobId;
+
+        SnapshotEntry(long size, long lastModified, ObjectId blobId) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.blobId = blobId;
+        }
+    }
+
+    private BlobSnapshot() {}
+
+    /******************************************************************************************
+     Insert a file into the object database of a repository, unless it was inserted before and
+     did not change since.
+     @param inserter The inserter of the repository; it must be flushed by the caller.
+     @return The blob id of the file.
+     @throws IOException if the file cannot be read or inserted.
+     ******************************************************************************************/
+    public static ObjectId insert (Repository repository, ObjectInserter inserter, Path file) throws IOException {
+        Path path = file.toAbsolutePath().normalize();
+        String key = repository.getDirectory().getAbsolutePath() + "|" + path;
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+
+        SnapshotEntry entry;
+        synchronized (snapshot) {
+            entry = snapshot.get(key);
+        }
+
+        // The object may be gone if the repository was cloned again
+        if (entry != null && entry.size == size && entry.lastModified == lastModified && repository.getObjectDatabase().has(entry.blobId))
+            return entry.blobId;
+
+        logger.debug("Insert {}", path);
+        ObjectId blobId = inserter.insert(Constants.OBJ_BLOB, Files.readAllBytes(path));
+        synchronized (snapshot) {
+            snapshot.put(key, new SnapshotEntry(size, lastModified, blobId));
+        }
+
+        return blobId;
+    }
+
+    public static void clear () {
+        synchronized (snapshot) {
+            snapshot.clear();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.utils;
+
+/******************************************************************************************
+ A BuildStatus contains the fields of a build (a pipeline run), as returned by the Azure
+ DevOps build API, that are used to follow the run.
+ A field is null if the response does not contain it.
+ *******************************************************************************************/
+public class BuildStatus {
+    public String id;
+    public String buildNumber;
+    public String status;
+    public String result;
+    public String queueTime; // ISO-8601; for example 2023-06-01T10:15:30.1234567Z
+    public String startTime; // ISO-8601; null if the build did not start yet
+    public String webUrl;
+}
@@ -0,0 +1,69 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.utils;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/******************************************************************************************
+ A ChangeSet contains the files that are changed (written) and deleted in the local target
+ repositories during a test, for example by copying the source files and dumping the yaml files.
+ It is used to stage only these files when the repositories are committed, instead of comparing
+ the complete working tree. The file names are stored as absolute paths, so one ChangeSet can
+ contain the files of multiple repositories. A ChangeSet can be used by multiple threads.
+ *******************************************************************************************/
+public class ChangeSet {
+    private final LinkedHashSet<Path> changed = new LinkedHashSet<>();
+    private final LinkedHashSet<Path> deleted = new LinkedHashSet<>();
+
+    public synchronized void addChanged (String fileName) {
+        Path path = Paths.get(fileName).toAbsolutePath().normalize();
+        deleted.remove(path);
+        changed.add(path);
+    }
+
+    public synchronized void addChanged (List<String> fileNames) {
+        int size = fileNames.size();
+        for (int index = 0; index < size; index++)
+            addChanged(fileNames.get(index));
+    }
+
+    public synchronized void addDeleted (String fileName) {
+        Path path = Paths.get(fileName).toAbsolutePath().normalize();
+        changed.remove(path);
+        deleted.add(path);
+    }
+
+    public synchronized boolean isEmpty () {
+        return changed.isEmpty() && deleted.isEmpty();
+    }
+
+    /******************************************************************************************
+     Returns the changed files in a repository.
+     @param root The root directory of the repository (its working tree).
+     @return The paths relative to the root, with '/' as separator.
+     ******************************************************************************************/
+    public synchronized ArrayList<String> getChangedPaths (String root) {
+        return getPaths(changed, root);
+    }
+
+    // See getChangedPaths()
+    public synchronized ArrayList<String> getDeletedPaths (String root) {
+        return getPaths(deleted, root);
+    }
+
+    private static ArrayList<String> getPaths (LinkedHashSet<Path> files, String root) {
+        Path rootPath = Paths.get(root).toAbsolutePath().normalize();
+        ArrayList<String> paths = new ArrayList<>();
+        for (Path file : files) {
+            if (file.startsWith(rootPath) && !file.equals(rootPath))
+                paths.add(rootPath.relativize(file).toString().replace('\\', '/'));
+        }
+
+        return paths;
+    }
+}
@@ -0,0 +1,199 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.utils;
+
+import azdo.yaml.YamlDocument;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/******************************************************************************************
+ DirectorySync synchronizes a target directory with a source directory. Only files that are
+ new or changed are copied; a file is changed if its size or modification time differs from
+ the source file. Optionally, the content of files with the same size is compared, so files
+ that only have a different modification time are not copied.
+ Files and directories of which the name matches the exclusion pattern are skipped; excluded
+ directories are not walked.
+ Files in the target that do not exist in the source are deleted, so the target has the same
+ content as the source; this is determined by walking the target, so it does not depend on
+ earlier synchronizations. The .git directory of the target and files and directories of which
+ the name matches the exclusion pattern are never deleted.
+ *******************************************************************************************/
+public class DirectorySync {
+    private static final Log logger = Log.getLogger();
+    private static boolean compareContent = false;
+
+    private DirectorySync() {}
+
+    /******************************************************************************************
+     If enabled, files with the same size but a different modification time are compared by
+     content; if the content is equal, the file is not copied.
+     ******************************************************************************************/
+    public static void setCompareContent (boolean enabled) {
+        compareContent = enabled;
+    }
+
+    public static boolean isCompareContent () {
+        return compareContent;
+    }
+
+    /******************************************************************************************
+     Synchronize the target directory with the source directory.
+     @param exclusionPattern Regular expression; files and directories of which the name
+                             matches are not synchronized.
+     @param changeSet The copied and deleted target files are added to the change set; may be null.
+     @throws IOException if the source directory cannot be walked or a file cannot be copied.
+     ******************************************************************************************/
+    public static void sync (String sourceDirectory,
+                             String targetDirectory,
+                             String exclusionPattern,
+                             ChangeSet changeSet) throws IOException {
+        logger.debug("==> Method: DirectorySync.sync");
+        logger.debug("sourceDirectory: {}", sourceDirectory);
+        logger.debug("targetDirectory: {}", targetDirectory);
+        logger.debug("exclusionPattern: {}", exclusionPattern);
+
+        Path source = Paths.get(sourceDirectory).toAbsolutePath().normalize();
+        Path target = Paths.get(targetDirectory).toAbsolutePath().normalize();
+        if (!Files.isDirectory(source)) {
+            throw new IllegalArgumentException("Source must be a directory");
+        }
+        Files.createDirectories(target);
+
+        // Walk the source and determine which files must be copied
+        Pattern pattern = Pattern.compile(exclusionPattern);
+        HashSet<String> files = new HashSet<>();
+        ArrayList<Path> copies = new ArrayList<>();
+        Files.walkFileTree(source, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                if (!dir.equals(source) && pattern.matcher(dir.getFileName().toString()).matches())
+                    return FileVisitResult.SKIP_SUBTREE; // Exclude directories matching the pattern
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isDirectory() || pattern.matcher(file.getFileName().toString()).matches())
+                    return FileVisitResult.CONTINUE;
+                Path relative = source.relativize(file);
+                files.add(relative.toString());
+                if (isChanged(file, attributes, target.resolve(relative)))
+                    copies.add(relative);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        copyFiles(source, target, copies, changeSet);
+
+        int deleted = deleteFiles(target, files, pattern, changeSet);
+
+        if (!copies.isEmpty() || deleted > 0)
+            FileIndex.invalidate(target.toString());
+        logger.debug("Synchronized source {} to target {}; {} of {} files copied, {} deleted", source, target, copies.size(), files.size(), deleted);
+    }
+
+    private static boolean isChanged (Path sourceFile, BasicFileAttributes sourceAttributes, Path targetFile) {
+        BasicFileAttributes targetAttributes;
+        try {
+            targetAttributes = Files.readAttributes(targetFile, BasicFileAttributes.class);
+        }
+        catch (IOException e) {
+            return true; // The target file does not exist
+        }
+        if (targetAttributes.size() != sourceAttributes.size())
+            return true;
+
+        // Compare in milliseconds; a copied modification time may be truncated by the file system
+        if (targetAttributes.lastModifiedTime().toMillis() == sourceAttributes.lastModifiedTime().toMillis())
+            return false;
+        if (!compareContent || !Utils.sameContent(sourceFile.toString(), targetFile.toString()))
+            return true;
+
+        // Same content; take over the modification time, so the content is not compared next time
+        try {
+            Files.setLastModifiedTime(targetFile, sourceAttributes.lastModifiedTime());
+        }
+        catch (IOException e) {
+            logger.debug("Cannot set the modification time of {}: {}", targetFile, e.getMessage());
+        }
+
+        return false;
+    }
+
+    // Delete the target files that are not in the source; the .git directory and excluded files are kept
+    private static int deleteFiles (Path target, HashSet<String> files, Pattern pattern, ChangeSet changeSet) throws IOException {
+        ArrayList<Path> deletes = new ArrayList<>();
+        Files.walkFileTree(target, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                if (!dir.equals(target) && (".git".equals(dir.getFileName().toString()) || pattern.matcher(dir.getFileName().toString()).matches()))
+                    return FileVisitResult.SKIP_SUBTREE;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (!attributes.isDirectory() && !pattern.matcher(file.getFileName().toString()).matches() && !files.contains(target.relativize(file).toString()))
+                    deletes.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        int size = deletes.size();
+        for (int index = 0; index < size; index++) {
+            Path file = deletes.get(index);
+            Files.deleteIfExists(file);
+            if (changeSet != null)
+                changeSet.addDeleted(file.toString());
+        }
+
+        return size;
+    }
+
+    // Copy the files in parallel, using the shared, bounded pool (see YamlDocument.getPool()); the modification time
+    // is copied, so unchanged files are skipped next time
+    private static void copyFiles (Path source, Path target, ArrayList<Path> copies, ChangeSet changeSet) throws IOException {
+        int size = copies.size();
+        if (size == 0)
+            return;
+
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        for (int index = 0; index < size; index++) {
+            Path relative = copies.get(index);
+            tasks.add(() -> {
+                Path targetFile = target.resolve(relative);
+                Path parent = targetFile.getParent();
+                if (parent != null)
+                    Files.createDirectories(parent);
+                Files.copy(source.resolve(relative), targetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                if (changeSet != null)
+                    changeSet.addChanged(targetFile.toString());
+                return null;
+            });
+        }
+
+        try {
+            List<Future<Void>> results = YamlDocument.getPool().invokeAll(tasks);
+            for (int index = 0; index < size; index++) {
+                results.get(index).get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Copying the files is interrupted", e);
+        }
+        catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+}
@@ -0,0 +1,230 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.utils;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/******************************************************************************************
+ A FileIndex contains all files in a directory tree (the root). The tree is walked once; after
+ that, a file is found with one hash lookup, instead of searching the file system. Each file is
+ stored under its absolute path and under every trailing part of its path relative to the root;
+ for example, the file <root>/a/b/c.yml is stored under 'a/b/c.yml', 'b/c.yml' and 'c.yml'. If
+ more files have the same trailing part, the first file of the walk is stored.
+ The indices are shared by all templates and documents in the JVM; there is one index per root.
+ Version control directories (.git, .svn, .hg), build output directories (target, build, out,
+ node_modules) and files and directories of which the name matches the exclusion pattern (see
+ setExclusionPattern) are not indexed.
+
+ An index becomes invalid if:
+ - invalidate() is called for the root, or for a directory inside or around the root; this is
+   done by Utils.copyAll() and Utils.deleteDirectory().
+ - a file that was found no longer exists.
+ - watching is enabled (see setWatchEnabled) and a file or directory was created or deleted.
+ An invalid index is built again at the next lookup.
+ *******************************************************************************************/
+public class FileIndex {
+    private static final Log logger = Log.getLogger();
+    private static final Map<String, FileIndex> indices = new HashMap<>();
+    private static final Set<String> SKIPPED_DIRECTORIES = Set.of(".git", ".svn", ".hg", "target", "build", "out", "node_modules");
+    private static boolean watchEnabled = false;
+    private static Pattern exclusionPattern = null;
+    private final Path root;
+    private HashMap<String, String> files = new HashMap<>(); // Absolute path or trailing part of the relative path -> absolute path
+    private int numberOfFiles = 0;
+    private WatchService watchService = null;
+    private boolean valid = false;
+
+    private FileIndex(Path root) {
+        this.root = root;
+    }
+
+    /******************************************************************************************
+     Returns the (shared) index of a directory.
+     ******************************************************************************************/
+    public static FileIndex of (String directory) {
+        Path root = Path.of(directory).toAbsolutePath().normalize();
+        String key = root.toString();
+        synchronized (indices) {
+            FileIndex fileIndex = indices.get(key);
+            if (fileIndex == null) {
+                fileIndex = new FileIndex(root);
+                indices.put(key, fileIndex);
+            }
+            return fileIndex;
+        }
+    }
+
+    /******************************************************************************************
+     Invalidates the indices of all roots that are inside 'directory' or that contain 'directory'.
+     ******************************************************************************************/
+    public static void invalidate (String directory) {
+        Path path = Path.of(directory).toAbsolutePath().normalize();
+        synchronized (indices) {
+            for (FileIndex fileIndex : indices.values()) {
+                if (fileIndex.root.startsWith(path) || path.startsWith(fileIndex.root))
+                    fileIndex.invalidate();
+            }
+        }
+    }
+
+    // Invalidates and removes all indices
+    public static void clear () {
+        synchronized (indices) {
+            Iterator<FileIndex> iterator = indices.values().iterator();
+            while (iterator.hasNext()) {
+                iterator.next().invalidate();
+                iterator.remove();
+            }
+        }
+    }
+
+    /******************************************************************************************
+     If enabled, the directories of an index are watched for created and deleted files; the index
+     is built again if something changed. This is useful if the JVM lives long and the files in
+     the source directory change in the meantime. Only applies to indices built afterwards.
+     ******************************************************************************************/
+    public static void setWatchEnabled (boolean enabled) {
+        watchEnabled = enabled;
+    }
+
+    public static boolean isWatchEnabled () {
+        return watchEnabled;
+    }
+
+    /******************************************************************************************
+     Files and directories of which the name matches the pattern (for example, the value of the
+     property 'target.excludelist') are not indexed. Only applies to indices built afterwards.
+     @param pattern Regular expression; null or empty if nothing is excluded.
+     ******************************************************************************************/
+    public static void setExclusionPattern (String pattern) {
+        exclusionPattern = pattern == null || pattern.isEmpty() ? null : Pattern.compile(pattern);
+    }
+
+    /******************************************************************************************
+     Find a file in the index. A file matches if 'fileName' is its absolute path, or if its path
+     ends with 'fileName' (consisting of complete path components). A leading '/' is ignored,
+     because it refers to the root.
+     @param fileName The (normalized) name of the file, possibly including (part of) its path.
+     @return The absolute path of the file, or null if it is not found.
+     ******************************************************************************************/
+    public synchronized String find (String fileName) {
+        if (watchService != null && watchService.poll() != null) {
+            logger.debug("Files changed in {}; rebuild the file index", root);
+            invalidate();
+        }
+        if (!valid)
+            build();
+
+        String match = lookup(fileName);
+        if (match != null && !Files.exists(Path.of(match))) {
+            logger.debug("File {} does not exist anymore; rebuild the file index", match);
+            invalidate();
+            build();
+            match = lookup(fileName);
+        }
+
+        return match;
+    }
+
+    public synchronized void invalidate () {
+        valid = false;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            }
+            catch (IOException e) {
+                logger.debug("Cannot close the watch service: {}", e.getMessage());
+            }
+            watchService = null;
+        }
+    }
+
+    private String lookup (String fileName) {
+        String key = fileName.replace('\\', '/');
+        String match = files.get(key);
+        if (match == null && key.startsWith("/"))
+            match = files.get(key.substring(1));
+
+        return match;
+    }
+
+    // Store the file under its absolute path and under each trailing part of its relative path
+    private void add (Path file) {
+        String absolutePath = file.toFile().getAbsoluteFile().toString();
+        files.putIfAbsent(absolutePath.replace('\\', '/'), absolutePath);
+        String relativePath = root.relativize(file).toString().replace('\\', '/');
+        files.putIfAbsent(relativePath, absolutePath);
+        int index = relativePath.indexOf('/');
+        while (index >= 0) {
+            files.putIfAbsent(relativePath.substring(index + 1), absolutePath);
+            index = relativePath.indexOf('/', index + 1);
+        }
+        numberOfFiles++;
+    }
+
+    private static boolean isExcluded (Path path) {
+        Path name = path.getFileName();
+        return name != null && exclusionPattern != null && exclusionPattern.matcher(name.toString()).matches();
+    }
+
+    private void build () {
+        logger.debug("==> Method: FileIndex.build");
+        logger.debug("root: {}", root);
+
+        files = new HashMap<>();
+        numberOfFiles = 0;
+        if (watchEnabled) {
+            try {
+                watchService = root.getFileSystem().newWatchService();
+            }
+            catch (IOException e) {
+                logger.debug("Cannot create a watch service: {}", e.getMessage());
+            }
+        }
+
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                    // Skip version control, build output and excluded directories; the root itself is always indexed
+                    if (!dir.equals(root) && (SKIPPED_DIRECTORIES.contains(dir.getFileName().toString()) || isExcluded(dir)))
+                        return FileVisitResult.SKIP_SUBTREE;
+                    if (watchService != null) {
+                        try {
+                            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+                        }
+                        catch (IOException e) {
+                            logger.debug("Cannot watch {}: {}", dir, e.getMessage());
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (!attributes.isDirectory() && !isExcluded(file))
+                        add(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        catch (IOException e) {
+            logger.debug("Cannot index directory {}: {}", root, e.getMessage());
+        }
+        valid = true;
+        logger.debug("Number of files in index: {}", numberOfFiles);
+    }
+}
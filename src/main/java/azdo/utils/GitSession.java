@@ -0,0 +1,113 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.utils;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.errors.LockFailedException;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+/******************************************************************************************
+ A GitSession keeps a local Git repository open, so it can be used for multiple Git commands
+ (and multiple startPipeline calls) without opening it again. The repository is closed
+ deterministically by close(); a GitSession can be used in a try-with-resources statement.
+ Git commands that fail because a lock file cannot be obtained (for example, because another
+ process is using the repository) can be retried with retryOnLock(); other failures are not
+ retried.
+ *******************************************************************************************/
+public class GitSession implements AutoCloseable {
+    private static final Log logger = Log.getLogger();
+    private static final int MAX_ATTEMPTS = 6;
+    private static final long INITIAL_BACKOFF_MS = 50;
+    private final String path;
+    private Git git = null;
+
+    public GitSession(String path) {
+        this.path = Utils.fixPath(path);
+    }
+
+    /******************************************************************************************
+     Returns the Git object of the repository. The repository is opened if it is not open yet.
+     @return The Git object, or null if the path does not contain a Git repository.
+     ******************************************************************************************/
+    public Git getGit() {
+        if (git == null) {
+            try {
+                logger.debug("Open repository {}", path);
+                git = Git.open(new File(path));
+            }
+            catch (IOException e) {
+                logger.debug("Cannot open repository {}: {}", path, e.getMessage());
+                return null;
+            }
+        }
+
+        return git;
+    }
+
+    /******************************************************************************************
+     Use a Git object that is already created (for example, by a clone) in this session. A Git
+     object that was opened earlier is closed.
+     ******************************************************************************************/
+    public void setGit(Git git) {
+        if (this.git != null && this.git != git)
+            this.git.close();
+        this.git = git;
+    }
+
+    public boolean isOpen() {
+        return git != null;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public void close() {
+        if (git != null) {
+            logger.debug("Close repository {}", path);
+            git.close();
+            git = null;
+        }
+    }
+
+    /******************************************************************************************
+     Execute a Git command. If it fails because a lock could not be obtained, it is retried a
+     limited number of times with an increasing delay (50, 100, 200, ... ms). Any other exception,
+     or the lock exception after the last attempt, is thrown.
+     ******************************************************************************************/
+    public static <T> T retryOnLock(Callable<T> command) throws Exception {
+        long backoff = INITIAL_BACKOFF_MS;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return command.call();
+            }
+            catch (Exception e) {
+                if (attempt >= MAX_ATTEMPTS || !isLockFailure(e))
+                    throw e;
+                logger.debug("Lock failure (attempt {} of {}); retry in {} ms: {}", attempt, MAX_ATTEMPTS, backoff, e.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                backoff *= 2;
+            }
+        }
+    }
+
+    private static boolean isLockFailure(Throwable e) {
+        while (e != null) {
+            if (e instanceof LockFailedException)
+                return true;
+            e = e.getCause();
+        }
+
+        return false;
+    }
+}
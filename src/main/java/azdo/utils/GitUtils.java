@@ -2,22 +2,50 @@ package azdo.utils;
 
 import azdo.yaml.RepositoryResource;
 import org.eclipse.jgit.api.AddCommand;
+import org.eclipse.jgit.api.CloneCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.ListBranchCommand;
+import org.eclipse.jgit.api.PushCommand;
+import org.eclipse.jgit.api.RmCommand;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+import org.eclipse.jgit.treewalk.TreeWalk;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
 
 /******************************************************************************************
  Contains methods to interact with Git, mainly using the JGit library.
  *******************************************************************************************/
 public class GitUtils {
     private static final Log logger = Log.getLogger();
-    private static Git git = null;
     public static final String BRANCH_MASTER = "master";
 
     // Clone an Azure DevOps repo to local and initialize
@@ -27,6 +55,28 @@ public class GitUtils {
                                         String azdoPat,
                                         String organization,
                                         String project) {
+        return cloneAzdoToLocal(targetPath, repositoryName, azdoUser, azdoPat, organization, project, null, false, false);
+    }
+
+    /******************************************************************************************
+     Clone an Azure DevOps repo to local.
+     @param branchName If not null or empty, only this branch is cloned and checked out;
+                       otherwise all branches are cloned. If the branch cannot be cloned (for
+                       example, because it does not exist), all branches are cloned and the
+                       default branch is checked out.
+     @param shallow If true, only the last commit is cloned (depth 1).
+     @param bare If true, the repository is cloned without working tree; the files can be
+                 retrieved with exportTree() and readFile().
+     ******************************************************************************************/
+    public static Git cloneAzdoToLocal (String targetPath,
+                                        String repositoryName,
+                                        String azdoUser,
+                                        String azdoPat,
+                                        String organization,
+                                        String project,
+                                        String branchName,
+                                        boolean shallow,
+                                        boolean bare) {
         logger.debug("==> Method: GitUtils.cloneAzdoToLocal");
         targetPath = Utils.fixPath(targetPath);
         logger.debug("targetPath: {}", targetPath);
@@ -34,14 +84,6 @@ public class GitUtils {
         logger.debug("organization: {}", organization);
         logger.debug("project: {}", project);
 
-        git = null;
-
-        // Delete the target path
-        //Utils.deleteDirectory(targetPath);
-
-        // Create the target path if not existing
-        Utils.createDirectory(targetPath);
-
         // Create the credentials provider
         CredentialsProvider credentialsProvider = new UsernamePasswordCredentialsProvider(azdoUser, azdoPat);
 
@@ -51,35 +93,212 @@ public class GitUtils {
         uriSourceRepository = Utils.encodePath (uriSourceRepository);
         logger.debug("uriSourceRepository: {}", uriSourceRepository);
 
-        // Clone the repo
+        return cloneToLocal(targetPath, uriSourceRepository, repositoryName, credentialsProvider, branchName, shallow, bare);
+    }
+
+    /******************************************************************************************
+     Reuse an existing local clone of an Azure DevOps repo, or clone it if there is none.
+     If the target path contains a valid clone of the repository, only the branch under test is
+     fetched. If the clone has another remote (for example, because the repository name in the
+     properties changed), the remote is changed and all its branches are fetched. The repository
+     is cloned if the target path does not contain a repository, or if the repository is corrupt;
+     a corrupt clone is deleted first.
+     @return The Git object of the local repository, or null if it cannot be cloned.
+     ******************************************************************************************/
+    public static Git cloneOrFetchAzdoToLocal (String targetPath,
+                                               String repositoryName,
+                                               String azdoUser,
+                                               String azdoPat,
+                                               String organization,
+                                               String project,
+                                               String branchName) {
+        logger.debug("==> Method: GitUtils.cloneOrFetchAzdoToLocal");
+        targetPath = Utils.fixPath(targetPath);
+        logger.debug("targetPath: {}", targetPath);
+        logger.debug("repositoryName: {}", repositoryName);
+        logger.debug("branchName: {}", branchName);
+
+        String uriSourceRepository = Utils.encodePath ("https://dev.azure.com/" + organization + "/" + project + "/_git/" + repositoryName);
+        File gitDirectory = new File(targetPath, ".git");
+        if (gitDirectory.exists()) {
+            Git git = openValidRepository(targetPath);
+            if (git != null) {
+                logger.debug("Reuse the existing clone of {}", repositoryName);
+                if (setRemote(git, uriSourceRepository))
+                    fetchAll(git, azdoUser, azdoPat);
+                fetchBranch(git, branchName, azdoUser, azdoPat);
+                return git;
+            }
+
+            // The clone cannot be used; remove it and clone again
+            logger.warn("The local clone of {} in {} is corrupt; delete it and clone it again", repositoryName, targetPath);
+            Utils.deleteDirectory(targetPath);
+        }
+
+        return cloneAzdoToLocal(targetPath,
+                repositoryName,
+                azdoUser,
+                azdoPat,
+                organization,
+                project);
+    }
+
+    /******************************************************************************************
+     Fetch one branch from the 'origin' remote; the remote-tracking branch is updated. If the
+     branch does not exist in the remote, nothing is fetched (the branch is created when it is
+     pushed).
+     ******************************************************************************************/
+    public static void fetchBranch (Git git,
+                                    String branchName,
+                                    String azdoUser,
+                                    String azdoPat) {
+        logger.debug("==> Method: GitUtils.fetchBranch");
+        logger.debug("branchName: {}", branchName);
+
+        if (git == null) {
+            logger.debug("Cannot continue; git is null");
+            return;
+        }
+
         try {
-            logger.debug("git.clone");
-            git = Git.cloneRepository()
-                    .setURI(uriSourceRepository)
-                    .setCloneAllBranches(true)
+            logger.debug("git.fetch");
+            CredentialsProvider credentialsProvider = new UsernamePasswordCredentialsProvider(azdoUser, azdoPat);
+            GitSession.retryOnLock(() -> git.fetch()
+                    .setRemote(Constants.DEFAULT_REMOTE_NAME)
+                    .setRefSpecs(new RefSpec("+" + Constants.R_HEADS + branchName + ":" + Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + branchName))
                     .setCredentialsProvider(credentialsProvider)
-                    .setDirectory(new File(targetPath))
-                    .call();
-            Utils.wait(1000);
-            //git.close();
+                    .call());
         }
         catch (Exception e) {
-            logger.debug("Cannot clone {}, but just proceed, {}", repositoryName, e.getMessage());
+            logger.debug("Cannot fetch branch {}; it probably does not exist in the remote: {}", branchName, e.getMessage());
         }
+    }
 
-        return git;
+    // Open the repository in targetPath; returns null if the repository is corrupt
+    private static Git openValidRepository (String targetPath) {
+        Git git = null;
+        try {
+            git = Git.open(new File(targetPath));
+            Repository repository = git.getRepository();
+            if (repository.getObjectDatabase().exists()) {
+                repository.resolve(Constants.HEAD); // Fails if the repository is corrupt
+                return git;
+            }
+            logger.debug("Repository in {} has no object database", targetPath);
+        }
+        catch (Exception e) {
+            logger.debug("Cannot open repository in {}: {}", targetPath, e.getMessage());
+        }
+        if (git != null)
+            git.close();
+
+        return null;
+    }
+
+    /*
+        Make 'uri' the url of the 'origin' remote. The urls are compared after normalizing them, so a
+        url with a user name (https://myorg@dev.azure.com/...), another case or a '.git' suffix
+        is the same remote.
+        Returns true if the remote is changed.
+     */
+    private static boolean setRemote (Git git, String uri) {
+        StoredConfig config = git.getRepository().getConfig();
+        String remoteUrl = config.getString("remote", Constants.DEFAULT_REMOTE_NAME, "url");
+        if (normalizeUrl(uri).equals(normalizeUrl(remoteUrl)))
+            return false;
+
+        logger.info("Repository in {} has remote {} instead of {}; the remote is changed", git.getRepository().getDirectory(), remoteUrl, uri);
+        config.setString("remote", Constants.DEFAULT_REMOTE_NAME, "url", uri);
+        config.setString("remote", Constants.DEFAULT_REMOTE_NAME, "fetch", "+" + Constants.R_HEADS + "*:" + Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/*");
+        try {
+            config.save();
+        }
+        catch (IOException e) {
+            logger.warn("Cannot change the remote of repository {}: {}", git.getRepository().getDirectory(), e.getMessage());
+            return false;
+        }
+
+        return true;
+    }
+
+    // Strip the user name, a trailing '/' and the '.git' suffix, and ignore the case
+    static String normalizeUrl (String url) {
+        if (url == null)
+            return "";
+
+        String normalized = url.trim().toLowerCase();
+        int schemeEnd = normalized.indexOf("://");
+        int userEnd = normalized.indexOf('@');
+        int pathStart = normalized.indexOf('/', schemeEnd < 0 ? 0 : schemeEnd + 3);
+        if (schemeEnd >= 0 && userEnd > schemeEnd && (pathStart < 0 || userEnd < pathStart))
+            normalized = normalized.substring(0, schemeEnd + 3) + normalized.substring(userEnd + 1);
+        while (normalized.endsWith("/"))
+            normalized = normalized.substring(0, normalized.length() - 1);
+        if (normalized.endsWith(".git"))
+            normalized = normalized.substring(0, normalized.length() - 4);
+
+        return normalized;
+    }
+
+    // Fetch all branches from the 'origin' remote; remote-tracking branches that no longer exist are removed
+    private static void fetchAll (Git git, String azdoUser, String azdoPat) {
+        try {
+            logger.debug("git.fetch");
+            CredentialsProvider credentialsProvider = new UsernamePasswordCredentialsProvider(azdoUser, azdoPat);
+            GitSession.retryOnLock(() -> git.fetch()
+                    .setRemote(Constants.DEFAULT_REMOTE_NAME)
+                    .setRemoveDeletedRefs(true)
+                    .setCredentialsProvider(credentialsProvider)
+                    .call());
+        }
+        catch (Exception e) {
+            logger.warn("Cannot fetch the branches of the remote: {}", e.getMessage());
+        }
     }
 
     // Clone a GitHub repo to local and initialize
     public static Git cloneGitHubToLocal (String targetPath,
                                           String repositoryName,
                                           String project) {
+        return cloneGitHubToLocal(targetPath, repositoryName, project, null, false, false);
+    }
+
+    /******************************************************************************************
+     Clone a GitHub repo to local. See cloneAzdoToLocal() for the meaning of branchName,
+     shallow and bare.
+     ******************************************************************************************/
+    public static Git cloneGitHubToLocal (String targetPath,
+                                          String repositoryName,
+                                          String project,
+                                          String branchName,
+                                          boolean shallow,
+                                          boolean bare) {
         logger.debug("==> Method: GitUtils.cloneGitHubToLocal");
         logger.debug("targetPath: {}", targetPath);
         logger.debug("repositoryName: {}", repositoryName);
         logger.debug("project: {}", project);
 
-        git = null;
+        // Create the uri
+        String baseUrl = "https://github.com";
+        String uriSourceRepository = baseUrl + "/" + project + "/" + repositoryName;
+        uriSourceRepository = Utils.encodePath (uriSourceRepository);
+        logger.debug("uriSourceRepository: {}", uriSourceRepository);
+
+        return cloneToLocal(targetPath, uriSourceRepository, repositoryName, null, branchName, shallow, bare);
+    }
+
+    private static Git cloneToLocal (String targetPath,
+                                     String uri,
+                                     String repositoryName,
+                                     CredentialsProvider credentialsProvider,
+                                     String branchName,
+                                     boolean shallow,
+                                     boolean bare) {
+        logger.debug("branchName: {}", branchName);
+        logger.debug("shallow: {}", shallow);
+        logger.debug("bare: {}", bare);
+
+        Git git = null;
 
         // Delete the target path
         //Utils.deleteDirectory(targetPath);
@@ -87,29 +306,306 @@ public class GitUtils {
         // Create the target path if not existing
         Utils.createDirectory(targetPath);
 
-        // Create the uri
-        String baseUrl = "https://github.com";
-        String uriSourceRepository = baseUrl + "/" + project + "/" + repositoryName;
-        uriSourceRepository = Utils.encodePath (uriSourceRepository);
-        logger.debug("uriSourceRepository: {}", uriSourceRepository);
-
         // Clone the repo
         try {
             logger.debug("git.clone");
-            git = Git.cloneRepository()
-                    .setURI(uriSourceRepository)
-                    .setCloneAllBranches(true)
+            CloneCommand command = Git.cloneRepository()
+                    .setURI(uri)
+                    .setCredentialsProvider(credentialsProvider)
                     .setDirectory(new File(targetPath))
-                    .call();
-            Utils.wait(1000);
+                    .setBare(bare);
+            if (branchName == null || branchName.isEmpty()) {
+                command.setCloneAllBranches(true);
+            }
+            else {
+                command.setBranch(Constants.R_HEADS + branchName)
+                        .setBranchesToClone(Collections.singletonList(Constants.R_HEADS + branchName));
+            }
+            if (shallow)
+                command.setDepth(1);
+            git = command.call();
         }
         catch (Exception e) {
+            if (branchName != null && !branchName.isEmpty()) {
+                // For example, the branch does not exist; the default branch is better than nothing
+                logger.warn("Cannot clone branch {} of {}; clone the default branch instead: {}", branchName, repositoryName, e.getMessage());
+                Utils.deleteDirectory(targetPath);
+                return cloneToLocal(targetPath, uri, repositoryName, credentialsProvider, null, shallow, bare);
+            }
             logger.debug("Cannot clone {}, but just proceed, {}", repositoryName, e.getMessage());
         }
 
         return git;
     }
 
+    /******************************************************************************************
+     Write all files of a revision to a directory, directly from the object database; no working
+     tree is needed, so this also works for a bare repository. Submodules and symbolic links are
+     skipped.
+     @param revision The revision, for example Constants.HEAD or a branch name.
+     @param targetPath The directory to which the files are written.
+     @return The number of files written, or -1 if the revision cannot be exported.
+     ******************************************************************************************/
+    public static int exportTree (Repository repository, String revision, String targetPath) {
+        logger.debug("==> Method: GitUtils.exportTree");
+        logger.debug("revision: {}", revision);
+        logger.debug("targetPath: {}", targetPath);
+
+        if (repository == null) {
+            logger.debug("Cannot continue; repository is null");
+            return -1;
+        }
+
+        int count = 0;
+        try (TreeWalk treeWalk = new TreeWalk(repository)) {
+            ObjectId tree = repository.resolve(revision + "^{tree}");
+            if (tree == null) {
+                logger.debug("Revision {} does not exist", revision);
+                return -1;
+            }
+            treeWalk.addTree(tree);
+            treeWalk.setRecursive(true);
+            Path root = Paths.get(targetPath);
+            while (treeWalk.next()) {
+                FileMode fileMode = treeWalk.getFileMode(0);
+                if (fileMode != FileMode.REGULAR_FILE && fileMode != FileMode.EXECUTABLE_FILE) {
+                    logger.debug("Skip {}; it is not a regular file", treeWalk.getPathString());
+                    continue;
+                }
+                Path file = root.resolve(treeWalk.getPathString());
+                writeBlob(repository, treeWalk.getObjectId(0), file);
+                if (fileMode == FileMode.EXECUTABLE_FILE)
+                    file.toFile().setExecutable(true);
+                count++;
+            }
+        }
+        catch (IOException e) {
+            logger.debug("Cannot export {}: {}", revision, e.getMessage());
+            return -1;
+        }
+        FileIndex.invalidate(targetPath);
+        logger.debug("Number of files exported: {}", count);
+
+        return count;
+    }
+
+    /******************************************************************************************
+     Commit and push without using the working tree. The tree of the commit is built in memory
+     (in a DirCache) and consists of:
+     - the files of the remote branch, or of HEAD if the branch does not exist remotely;
+     - overwritten by the files in 'sourcePath', except the files matching 'exclusionPattern'
+       (same as Utils.copyAll());
+     - overwritten by 'files', the content of the changed yaml files.
+     Unchanged source files are not read again; see BlobSnapshot. The local branch is set to the
+     new commit, but the working tree and the index are not updated.
+     @param files Target file name -> content; the file names are in 'targetPath'.
+     ******************************************************************************************/
+    public static void commitAndPushInMemory (Git git,
+                                              String branchName,
+                                              String sourcePath,
+                                              String exclusionPattern,
+                                              String targetPath,
+                                              Map<String, byte[]> files,
+                                              String azdoUser,
+                                              String azdoPat,
+                                              RepositoryResource metadataRepository,
+                                              boolean continueOnError) {
+        try {
+            commitAndPushInMemory(git, branchName, sourcePath, exclusionPattern, targetPath, files, azdoUser, azdoPat);
+        }
+        catch (Exception e) {
+            handlePushException(e, metadataRepository, continueOnError);
+        }
+    }
+
+    /******************************************************************************************
+     Same as commitAndPushInMemory(), but an exception is thrown instead of handled.
+     ******************************************************************************************/
+    public static void commitAndPushInMemory (Git git,
+                                              String branchName,
+                                              String sourcePath,
+                                              String exclusionPattern,
+                                              String targetPath,
+                                              Map<String, byte[]> files,
+                                              String azdoUser,
+                                              String azdoPat) throws Exception {
+        logger.debug("==> Method: GitUtils.commitAndPushInMemory");
+        logger.debug("branchName: {}", branchName);
+        logger.debug("sourcePath: {}", sourcePath);
+
+        if (git == null) {
+            logger.debug("Cannot continue; git is null");
+            return;
+        }
+
+        Repository repository = git.getRepository();
+        try (ObjectInserter inserter = repository.newObjectInserter();
+             RevWalk revWalk = new RevWalk(repository)) {
+
+            // Start with the files of the remote branch; a new branch is created from HEAD
+            ObjectId parentId = repository.resolve(Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + branchName);
+            if (parentId == null)
+                parentId = repository.resolve(Constants.HEAD);
+            TreeMap<String, DirCacheEntry> entries = new TreeMap<>();
+            if (parentId != null) {
+                try (TreeWalk treeWalk = new TreeWalk(repository)) {
+                    treeWalk.addTree(revWalk.parseCommit(parentId).getTree());
+                    treeWalk.setRecursive(true);
+                    while (treeWalk.next())
+                        entries.put(treeWalk.getPathString(), createEntry(treeWalk.getPathString(), treeWalk.getFileMode(0), treeWalk.getObjectId(0)));
+                }
+            }
+
+            // Add the source files
+            Path sourceRoot = Paths.get(sourcePath).toAbsolutePath().normalize();
+            Pattern pattern = Pattern.compile(exclusionPattern);
+            Files.walkFileTree(sourceRoot, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                    if (!dir.equals(sourceRoot) && pattern.matcher(dir.getFileName().toString()).matches())
+                        return FileVisitResult.SKIP_SUBTREE;
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                    if (attributes.isRegularFile() && !pattern.matcher(file.getFileName().toString()).matches()) {
+                        String path = toRepositoryPath(sourceRoot, file);
+                        DirCacheEntry existing = entries.get(path);
+                        FileMode fileMode = existing == null ? FileMode.REGULAR_FILE : existing.getFileMode();
+                        entries.put(path, createEntry(path, fileMode, BlobSnapshot.insert(repository, inserter, file)));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+
+            // Add the changed yaml files
+            Path targetRoot = Paths.get(targetPath).toAbsolutePath().normalize();
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                String path = toRepositoryPath(targetRoot, Paths.get(file.getKey()).toAbsolutePath().normalize());
+                ObjectId blobId = inserter.insert(Constants.OBJ_BLOB, file.getValue());
+                DirCacheEntry existing = entries.get(path);
+                entries.put(path, createEntry(path, existing == null ? FileMode.REGULAR_FILE : existing.getFileMode(), blobId));
+            }
+
+            // Write the tree and the commit
+            DirCache dirCache = DirCache.newInCore();
+            DirCacheBuilder builder = dirCache.builder();
+            for (DirCacheEntry entry : entries.values())
+                builder.add(entry);
+            builder.finish();
+            ObjectId treeId = dirCache.writeTree(inserter);
+            if (isTreeOnRemote(repository, branchName, treeId)) {
+                logger.debug("The files are the same as on remote branch {}; skip commit and push", branchName);
+                return;
+            }
+
+            CommitBuilder commitBuilder = new CommitBuilder();
+            commitBuilder.setTreeId(treeId);
+            if (parentId != null)
+                commitBuilder.setParentId(parentId);
+            PersonIdent person = new PersonIdent(azdoUser, "");
+            commitBuilder.setAuthor(person);
+            commitBuilder.setCommitter(person);
+            commitBuilder.setMessage("Init repo");
+            ObjectId commitId = inserter.insert(commitBuilder);
+            inserter.flush();
+            logger.debug("Commit {} with tree {}", commitId.getName(), treeId.getName());
+
+            // Set the local branch to the commit
+            RefUpdate refUpdate = repository.updateRef(Constants.R_HEADS + branchName);
+            refUpdate.setNewObjectId(commitId);
+            refUpdate.setForceUpdate(true);
+            refUpdate.setRefLogMessage("commit: Init repo", false);
+            RefUpdate.Result result = refUpdate.update(revWalk);
+            if (result != RefUpdate.Result.NEW && result != RefUpdate.Result.FORCED && result != RefUpdate.Result.FAST_FORWARD && result != RefUpdate.Result.NO_CHANGE)
+                throw new IOException("Cannot update branch " + branchName + ": " + result);
+
+            push(git, azdoUser, azdoPat, Constants.R_HEADS + branchName + ":" + Constants.R_HEADS + branchName);
+        }
+    }
+
+    private static DirCacheEntry createEntry (String path, FileMode fileMode, ObjectId objectId) {
+        DirCacheEntry entry = new DirCacheEntry(path);
+        entry.setFileMode(fileMode);
+        entry.setObjectId(objectId);
+        return entry;
+    }
+
+    // Path of a file relative to the root of the repository, with '/' as separator
+    private static String toRepositoryPath (Path root, Path file) {
+        return root.relativize(file).toString().replace('\\', '/');
+    }
+
+    /******************************************************************************************
+     Force push to the remote.
+     @param refSpec The ref to push, for example "HEAD:refs/heads/myBranch"; if null, all
+                    branches are pushed.
+     ******************************************************************************************/
+    private static void push (Git git, String azdoUser, String azdoPat, String refSpec) throws Exception {
+        // Create the credentials provider
+        CredentialsProvider credentialsProvider = new UsernamePasswordCredentialsProvider(azdoUser, azdoPat);
+
+        logger.debug("git.push {}", refSpec);
+        PushCommand command = git.push()
+                .setCredentialsProvider(credentialsProvider)
+                .setForce(true);
+        if (refSpec == null)
+            command.setPushAll();
+        else
+            command.setRefSpecs(new RefSpec(refSpec));
+        GitSession.retryOnLock(command::call);
+    }
+
+
+    /******************************************************************************************
+     Write one file of a revision to a directory, directly from the object database.
+     @param revision The revision, for example Constants.HEAD or a branch name.
+     @param path Path of the file, relative to the root of the repository and with '/' as separator.
+     @param targetPath The directory to which the file is written (at the same relative path).
+     @return False if the file does not exist in the revision or cannot be written.
+     ******************************************************************************************/
+    public static boolean exportFile (Repository repository, String revision, String path, String targetPath) {
+        logger.debug("==> Method: GitUtils.exportFile");
+        logger.debug("path: {}", path);
+
+        if (repository == null) {
+            logger.debug("Cannot continue; repository is null");
+            return false;
+        }
+
+        try {
+            ObjectId tree = repository.resolve(revision + "^{tree}");
+            if (tree == null) {
+                logger.debug("Revision {} does not exist", revision);
+                return false;
+            }
+            try (TreeWalk treeWalk = TreeWalk.forPath(repository, path, tree)) {
+                if (treeWalk == null || (treeWalk.getFileMode(0) != FileMode.REGULAR_FILE && treeWalk.getFileMode(0) != FileMode.EXECUTABLE_FILE)) {
+                    logger.debug("File {} does not exist in {}", path, revision);
+                    return false;
+                }
+                writeBlob(repository, treeWalk.getObjectId(0), Paths.get(targetPath).resolve(path));
+            }
+        }
+        catch (IOException e) {
+            logger.debug("Cannot export {}: {}", path, e.getMessage());
+            return false;
+        }
+        FileIndex.invalidate(targetPath);
+
+        return true;
+    }
+
+    private static void writeBlob (Repository repository, ObjectId blob, Path file) throws IOException {
+        Path parent = file.getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+        try (OutputStream outputStream = Files.newOutputStream(file)) {
+            repository.open(blob, Constants.OBJ_BLOB).copyTo(outputStream);
+        }
+    }
+
     public static boolean containsBranch (Git git,
                                           String branchName) {
         logger.debug("==> Method: GitUtils.containsBranch");
@@ -145,22 +641,73 @@ public class GitUtils {
                                       ArrayList<String> commitPatternList,
                                       RepositoryResource metadataRepository,
                                       boolean continueOnError) {
-        logger.debug("==> Method: GitUtils.commitAndPush");
         // Note, that the 'metadataRepository' is only used as meta-data for logging
+        try {
+            commitAndPush(git, azdoUser, azdoPat, commitPatternList);
+        }
+        catch (Exception e) {
+            handlePushException(e, metadataRepository, continueOnError);
+        }
+    }
+
+    /******************************************************************************************
+     Same as commitAndPush(), but an exception is thrown instead of handled, so the caller can
+     decide what to do (for example, if multiple repositories are pushed concurrently).
+     ******************************************************************************************/
+    public static void commitAndPush (Git git,
+                                      String azdoUser,
+                                      String azdoPat,
+                                      ArrayList<String> commitPatternList) throws Exception {
+        commitAndPush(git, azdoUser, azdoPat, commitPatternList, null);
+    }
+
+    /******************************************************************************************
+     Same as commitAndPush(git, azdoUser, azdoPat, commitPatternList), but if 'changeSet' is not
+     null, only the files in the change set that are part of this repository are staged; the
+     rest of the working tree is not compared. The commitPatternList is not used in that case.
+     If 'changeSet' is null, all files are staged.
+     ******************************************************************************************/
+    public static void commitAndPush (Git git,
+                                      String azdoUser,
+                                      String azdoPat,
+                                      ArrayList<String> commitPatternList,
+                                      ChangeSet changeSet) throws Exception {
+        commitAndPush(git, null, azdoUser, azdoPat, commitPatternList, changeSet);
+    }
+
+    /******************************************************************************************
+     Same as commitAndPush(git, azdoUser, azdoPat, commitPatternList, changeSet), but only the
+     commit is pushed to branch 'branchName' of the remote; other branches are not pushed.
+     If the staged files are the same as the files of the remote branch (the tree is equal),
+     nothing is committed or pushed.
+     @param branchName The remote branch; if null, the current branch is used.
+     ******************************************************************************************/
+    public static void commitAndPush (Git git,
+                                      String branchName,
+                                      String azdoUser,
+                                      String azdoPat,
+                                      ArrayList<String> commitPatternList,
+                                      ChangeSet changeSet) throws Exception {
+        logger.debug("==> Method: GitUtils.commitAndPush");
+        logger.debug("branchName: {}", branchName);
 
         if (git == null) {
             logger.debug("Cannot continue; git is null");
             return;
         }
 
-        logger.debug("Repository {}", git.getRepository().getRemoteNames().toString());
+        Repository repository = git.getRepository();
+        logger.debug("Repository {}", repository.getRemoteNames().toString());
 
         // Push the local repo to remote
-        try {
+        if (changeSet != null) {
+            stageChangeSet(git, changeSet);
+        }
+        else {
             logger.debug("git.add");
-            git.add()
+            GitSession.retryOnLock(() -> git.add()
                     .addFilepattern(".")
-                    .call();
+                    .call());
 
             // Stage all changed files, including deleted files
             int size = commitPatternList.size();
@@ -169,39 +716,96 @@ public class GitUtils {
                 command = command.addFilepattern(commitPatternList.get(i));
                 logger.debug("Pattern: {}", commitPatternList.get(i));
             }
-            command.call();
-
-            logger.debug("git.commit");
-            git.commit()
-                    .setAll(true)
-                    .setAuthor(azdoUser, "")
-                    .setCommitter(azdoUser, "")
-                    .setMessage("Init repo")
-                    .call();
-            Utils.wait(1000);
-
-            // Create the credentials provider
-            CredentialsProvider credentialsProvider = new UsernamePasswordCredentialsProvider(azdoUser, azdoPat);
+            GitSession.retryOnLock(command::call);
+            GitSession.retryOnLock(() -> git.add()
+                    .setUpdate(true)
+                    .addFilepattern(".")
+                    .call());
+        }
 
-            logger.debug("git.push");
-            git.push()
-                    .setPushAll()
-                    .setCredentialsProvider(credentialsProvider)
-                    .setForce(true)
-                    .call();
-            Utils.wait(1000);
+        // Determine the remote branch; if HEAD is detached, all branches are pushed
+        if (branchName == null && repository.getFullBranch() != null && repository.getFullBranch().startsWith(Constants.R_HEADS))
+            branchName = repository.getBranch();
+        if (branchName != null && isTreeOnRemote(repository, branchName, writeIndexTree(repository))) {
+            logger.debug("The files are the same as on remote branch {}; skip commit and push", branchName);
+            return;
         }
 
-        catch (Exception e) {
-            if (continueOnError) {
-                logger.debug("Exception pushing to repo: {}", e.getMessage());
+        logger.debug("git.commit");
+        GitSession.retryOnLock(() -> git.commit()
+                .setAuthor(azdoUser, "")
+                .setCommitter(azdoUser, "")
+                .setMessage("Init repo")
+                .call());
+
+        push(git, azdoUser, azdoPat, branchName == null ? null : Constants.HEAD + ":" + Constants.R_HEADS + branchName);
+    }
+
+    // Write the tree of the index (the staged files) to the object database
+    private static ObjectId writeIndexTree (Repository repository) throws IOException {
+        try (ObjectInserter inserter = repository.newObjectInserter()) {
+            ObjectId treeId = repository.readDirCache().writeTree(inserter);
+            inserter.flush();
+            return treeId;
+        }
+    }
+
+    // Returns true if the tree of the remote branch (as last fetched or pushed) equals 'treeId'
+    private static boolean isTreeOnRemote (Repository repository, String branchName, ObjectId treeId) throws IOException {
+        ObjectId remoteTreeId = repository.resolve(Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + branchName + "^{tree}");
+        return remoteTreeId != null && remoteTreeId.equals(treeId);
+    }
+
+    // Stage the files of the change set that are part of the repository
+    private static void stageChangeSet (Git git, ChangeSet changeSet) throws Exception {
+        String root = git.getRepository().getWorkTree().getAbsolutePath();
+        ArrayList<String> changedPaths = changeSet.getChangedPaths(root);
+        ArrayList<String> deletedPaths = changeSet.getDeletedPaths(root);
+        logger.debug("Stage {} changed and {} deleted files", changedPaths.size(), deletedPaths.size());
+
+        // A changed file that does not exist anymore is deleted
+        AddCommand addCommand = git.add();
+        RmCommand rmCommand = git.rm().setCached(true);
+        boolean add = false;
+        boolean rm = false;
+        int size = changedPaths.size();
+        for (int index = 0; index < size; index++) {
+            String path = changedPaths.get(index);
+            if (Files.exists(Paths.get(root, path))) {
+                addCommand.addFilepattern(path);
+                add = true;
             }
             else {
-                logger.error("Exception pushing to repo: {}", e.getMessage());
-                logger.error("You may need to delete the local clone of {}", metadataRepository.repository);
-                System. exit(1);
+                rmCommand.addFilepattern(path);
+                rm = true;
             }
         }
+        size = deletedPaths.size();
+        for (int index = 0; index < size; index++) {
+            rmCommand.addFilepattern(deletedPaths.get(index));
+            rm = true;
+        }
+
+        if (add) {
+            logger.debug("git.add");
+            GitSession.retryOnLock(addCommand::call);
+        }
+        if (rm) {
+            logger.debug("git.rm");
+            GitSession.retryOnLock(rmCommand::call);
+        }
+    }
+
+    // Handle an exception of commitAndPush() or commitAndPushInMemory()
+    private static void handlePushException (Exception e, RepositoryResource metadataRepository, boolean continueOnError) {
+        if (continueOnError) {
+            logger.debug("Exception pushing to repo: {}", e.getMessage());
+        }
+        else {
+            logger.error("Exception pushing to repo: {}", e.getMessage());
+            logger.error("You may need to delete the local clone of {}", metadataRepository.repository);
+            System. exit(1);
+        }
     }
 
     public static Git checkout (Git git,
@@ -217,7 +821,6 @@ public class GitUtils {
         if (git == null) {
             targetPath = Utils.fixPath(targetPath);
             git = createGit(targetPath);
-            Utils.wait (1000);
         }
 
         // Perform a checkout
@@ -225,7 +828,6 @@ public class GitUtils {
             try {
                 logger.debug("git.checkout");
                 checkout(git, branchName, createRemoteBranch);
-                Utils.wait (1000);
             } catch (Exception e) {
                 logger.debug("Exception occurred. Cannot checkout {}; {}", branchName, e.getMessage());
 //                try {
@@ -254,27 +856,27 @@ public class GitUtils {
         }
 
         logger.debug("git.checkout");
-        git.checkout()
+        GitSession.retryOnLock(() -> git.checkout()
                 .setForced(true)
                 .setCreateBranch(createRemoteBranch)
                 .setName(branchName)
-                .call();
-        Utils.wait(1000);
+                .call());
 
         return git;
     }
 
+    // Open an existing local repository; the caller must close the returned Git object
     public static Git createGit (String targetPath) {
         logger.debug("==> Method: GitUtils.createGit");
         logger.debug("targetPath: {}", targetPath);
 
         // If git object is invalid recreate it again
+        Git git;
         try {
             logger.debug("Recreate git object");
             targetPath = Utils.fixPath(targetPath);
             File f = new File(targetPath);
             git = Git.open(f);
-            Utils.wait(1000);
         }
         catch (IOException e) {
             logger.debug("Cannot create a Git object: {}", e.getMessage());
@@ -284,13 +886,14 @@ public class GitUtils {
         return git;
     }
 
+    // Returns the branch name of a ref, for example 'feature/x' of 'refs/heads/feature/x'
     // TODO: Refs can also contain tags and remotes
     public static String resolveBranchNameFromRef (String ref) {
         logger.debug("==> Method: GitUtils.resolveBranchFromRef");
         logger.debug("ref: {}", ref);
         String branchName = "";
-        if (ref.contains("heads"))
-            branchName = ref.substring(ref.lastIndexOf('/') + 1);
+        if (ref.startsWith(Constants.R_HEADS))
+            branchName = ref.substring(Constants.R_HEADS.length());
 
         return branchName;
     }
@@ -0,0 +1,163 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/******************************************************************************************
+ A LiteralMatcher finds a set of literals in a text in one pass, using the Aho-Corasick
+ algorithm. The matcher is built once and can be used for any number of texts; it is not
+ changed by matching, so it can be shared between threads.
+ If literals overlap, the leftmost one wins; if multiple literals start at the same position,
+ the longest one wins. So 'BUILD_SOURCEBRANCHNAME' is not matched as 'BUILD_SOURCEBRANCH'.
+ *******************************************************************************************/
+public class LiteralMatcher {
+    private ArrayList<String> literals;
+    private ArrayList<HashMap<Character, Integer>> transitions = new ArrayList<>();
+    private ArrayList<Integer> failures = new ArrayList<>();
+    private ArrayList<ArrayList<Integer>> outputs = new ArrayList<>(); // Indices of the literals that end in a state
+
+    private static class Match {
+        int start;
+        int literal;
+
+        Match(int start, int literal) {
+            this.start = start;
+            this.literal = literal;
+        }
+    }
+
+    /******************************************************************************************
+     @param literals The literals to find.
+     @throws IllegalArgumentException if a literal is null or empty.
+     *******************************************************************************************/
+    public LiteralMatcher(List<String> literals) {
+        this.literals = new ArrayList<>(literals);
+        addState();
+
+        // Build the trie
+        int size = this.literals.size();
+        for (int index = 0; index < size; index++) {
+            String literal = this.literals.get(index);
+            if (literal == null || literal.isEmpty())
+                throw new IllegalArgumentException("A literal may not be null or empty");
+            int state = 0;
+            int length = literal.length();
+            for (int i = 0; i < length; i++) {
+                Integer next = transitions.get(state).get(literal.charAt(i));
+                if (next == null) {
+                    next = addState();
+                    transitions.get(state).put(literal.charAt(i), next);
+                }
+                state = next;
+            }
+            outputs.get(state).add(index);
+        }
+
+        // Add the failure links (breadth first); a state also outputs the literals of its failure state
+        ArrayList<Integer> queue = new ArrayList<>(transitions.get(0).values());
+        for (int i = 0; i < queue.size(); i++) {
+            int state = queue.get(i);
+            for (HashMap.Entry<Character, Integer> entry : transitions.get(state).entrySet()) {
+                int next = entry.getValue();
+                queue.add(next);
+                int failure = failures.get(state);
+                while (failure > 0 && !transitions.get(failure).containsKey(entry.getKey()))
+                    failure = failures.get(failure);
+                Integer target = transitions.get(failure).get(entry.getKey());
+                failures.set(next, target == null || target == next ? 0 : target);
+                outputs.get(next).addAll(outputs.get(failures.get(next)));
+            }
+        }
+    }
+
+    private int addState() {
+        transitions.add(new HashMap<>());
+        failures.add(0);
+        outputs.add(new ArrayList<>());
+        return transitions.size() - 1;
+    }
+
+    public int size() {
+        return literals.size();
+    }
+
+    public String getLiteral(int index) {
+        return literals.get(index);
+    }
+
+    /******************************************************************************************
+     Replace the literals in a text.
+     @param text The text.
+     @param replacements The replacement of each literal; same order as the literals.
+     @param remaining The number of replacements that may still be made for each literal; it is
+                      decreased for each replacement. If null, all occurrences are replaced.
+     @param counts The number of replacements per literal is added to this array.
+     @return The text with the replacements, or the same String object if nothing was replaced.
+     *******************************************************************************************/
+    public String replace(String text,
+                          List<String> replacements,
+                          int[] remaining,
+                          int[] counts) {
+        if (text == null)
+            return null;
+
+        ArrayList<Match> matches = find(text);
+        if (matches.isEmpty())
+            return text;
+
+        // Leftmost match first; on the same position, the longest literal first
+        matches.sort((a, b) -> a.start != b.start ? a.start - b.start : literals.get(b.literal).length() - literals.get(a.literal).length());
+
+        StringBuilder result = null;
+        int position = 0;
+        int size = matches.size();
+        for (int index = 0; index < size; index++) {
+            Match match = matches.get(index);
+            if (match.start < position)
+                continue;
+            if (remaining != null && remaining[match.literal] <= 0)
+                continue;
+            if (result == null)
+                result = new StringBuilder(text.length());
+            result.append(text, position, match.start);
+            result.append(replacements.get(match.literal));
+            position = match.start + literals.get(match.literal).length();
+            counts[match.literal]++;
+            if (remaining != null)
+                remaining[match.literal]--;
+        }
+        if (result == null)
+            return text;
+        result.append(text, position, text.length());
+
+        return result.toString();
+    }
+
+    // Find all (possibly overlapping) occurrences of all literals
+    private ArrayList<Match> find(String text) {
+        ArrayList<Match> matches = new ArrayList<>();
+        int state = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            Integer next = transitions.get(state).get(c);
+            while (next == null && state > 0) {
+                state = failures.get(state);
+                next = transitions.get(state).get(c);
+            }
+            state = next == null ? 0 : next;
+            ArrayList<Integer> output = outputs.get(state);
+            int size = output.size();
+            for (int j = 0; j < size; j++) {
+                int literal = output.get(j);
+                matches.add(new Match(i - literals.get(literal).length() + 1, literal));
+            }
+        }
+
+        return matches;
+    }
+}
@@ -68,6 +68,12 @@ public class PropertyUtils {
     private String targetRepositoryName;
     private boolean includeExternalTemplates = true;
     private boolean continueOnError = false;
+    private boolean actionsDeferred = false;
+    private boolean fileIndexWatch = false;
+    private boolean externalTemplatesShallow = true;
+    private boolean externalTemplatesSparse = false;
+    private boolean commitInMemory = false;
+    private boolean syncCompareContent = false;
 
     @SuppressWarnings("java:S1192")
     public PropertyUtils(String propertyFile) {
@@ -139,6 +145,12 @@ public class PropertyUtils {
             // Miscellaneous
             continueOnError = getBooleanProperty(properties, "error.continue", continueOnError);
             includeExternalTemplates = getBooleanProperty(properties, "templates.external.include", includeExternalTemplates);
+            actionsDeferred = getBooleanProperty(properties, "actions.deferred", actionsDeferred);
+            fileIndexWatch = getBooleanProperty(properties, "fileindex.watch", fileIndexWatch);
+            externalTemplatesShallow = getBooleanProperty(properties, "templates.external.shallow", externalTemplatesShallow);
+            externalTemplatesSparse = getBooleanProperty(properties, "templates.external.sparse", externalTemplatesSparse);
+            commitInMemory = getBooleanProperty(properties, "commit.inmemory", commitInMemory);
+            syncCompareContent = getBooleanProperty(properties, "sync.comparecontent", syncCompareContent);
 
             // Derived properties
             azdoBaseUrl="https://dev.azure.com/" + targetOrganization;
@@ -426,4 +438,34 @@ public class PropertyUtils {
         this.continueOnError = continueOnError;
     }
     public boolean isContinueOnError () { return continueOnError; }
+
+    public void setActionsDeferred (boolean actionsDeferred) {
+        this.actionsDeferred = actionsDeferred;
+    }
+    public boolean isActionsDeferred () { return actionsDeferred; }
+
+    public void setFileIndexWatch (boolean fileIndexWatch) {
+        this.fileIndexWatch = fileIndexWatch;
+    }
+    public boolean isFileIndexWatch () { return fileIndexWatch; }
+
+    public void setExternalTemplatesShallow (boolean externalTemplatesShallow) {
+        this.externalTemplatesShallow = externalTemplatesShallow;
+    }
+    public boolean isExternalTemplatesShallow () { return externalTemplatesShallow; }
+
+    public void setExternalTemplatesSparse (boolean externalTemplatesSparse) {
+        this.externalTemplatesSparse = externalTemplatesSparse;
+    }
+    public boolean isExternalTemplatesSparse () { return externalTemplatesSparse; }
+
+    public void setCommitInMemory (boolean commitInMemory) {
+        this.commitInMemory = commitInMemory;
+    }
+    public boolean isCommitInMemory () { return commitInMemory; }
+
+    public void setSyncCompareContent (boolean syncCompareContent) {
+        this.syncCompareContent = syncCompareContent;
+    }
+    public boolean isSyncCompareContent () { return syncCompareContent; }
 }
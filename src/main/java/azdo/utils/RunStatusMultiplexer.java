@@ -0,0 +1,297 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.utils;
+
+import azdo.junit.RunResult;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static azdo.utils.Constants.DEMARCATION;
+
+/******************************************************************************************
+ The RunStatusMultiplexer waits for the result of multiple pipeline runs (builds) at the same
+ time. It keeps a registry of the builds that are not finished yet, and polls the status of all
+ these builds with one API call (builds?buildIds=...) per interval, instead of one call per build.
+ The interval is the shortest poll interval of the registered builds (see
+ AzDoUtils.getPollInterval()).
+ If a build is finished, or its timeout is exceeded, the timeline of the build is retrieved and
+ the future of the build is completed with the run result.
+ There is one RunStatusMultiplexer per user, Personal Access Token and build API in the JVM;
+ see of().
+ *******************************************************************************************/
+public class RunStatusMultiplexer {
+    private static final Log logger = Log.getLogger();
+    private static final int MAX_BUILDS_PER_CALL = 100; // Keeps the url short; more builds are polled with multiple calls
+    private static final HashMap<String, RunStatusMultiplexer> multiplexers = new HashMap<>();
+    private final String azdoUser;
+    private final String azdoPat;
+    private final String azdoEndpoint;
+    private final String azdoBuildApi;
+    private final String azdoBuildApiVersion;
+    private final LinkedHashMap<String, Run> runs = new LinkedHashMap<>(); // Build id -> run
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService timelineExecutor;
+    private ScheduledFuture<?> nextPoll = null;
+
+    private static class Run {
+        String buildId;
+        int pollFrequency;
+        int timeout;
+        CompletableFuture<RunResult> future = new CompletableFuture<>();
+        Instant registered = Instant.now();
+        Instant queueTime = null;
+        Instant startTime = null;
+        RunResult.Status status = RunResult.Status.none;
+        boolean firstPoll = true;
+    }
+
+    private RunStatusMultiplexer(String azdoUser,
+                                 String azdoPat,
+                                 String azdoEndpoint,
+                                 String azdoBuildApi,
+                                 String azdoBuildApiVersion) {
+        this.azdoUser = azdoUser;
+        this.azdoPat = azdoPat;
+        this.azdoEndpoint = azdoEndpoint;
+        this.azdoBuildApi = azdoBuildApi;
+        this.azdoBuildApiVersion = azdoBuildApiVersion;
+
+        // Daemon threads, so the multiplexer does not prevent the JVM from exiting
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "run-status-poll");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timelineExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "run-status-timeline");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /******************************************************************************************
+     Returns the (shared) multiplexer of a user and build API.
+     ******************************************************************************************/
+    public static RunStatusMultiplexer of (String azdoUser,
+                                           String azdoPat,
+                                           String azdoEndpoint,
+                                           String azdoBuildApi,
+                                           String azdoBuildApiVersion) {
+        String key = azdoUser + ":" + azdoPat + "|" + azdoEndpoint + azdoBuildApi + "?" + azdoBuildApiVersion;
+        synchronized (multiplexers) {
+            RunStatusMultiplexer multiplexer = multiplexers.get(key);
+            if (multiplexer == null) {
+                multiplexer = new RunStatusMultiplexer(azdoUser, azdoPat, azdoEndpoint, azdoBuildApi, azdoBuildApiVersion);
+                multiplexers.put(key, multiplexer);
+            }
+            return multiplexer;
+        }
+    }
+
+    /******************************************************************************************
+     Register a build and start polling its status.
+     @param buildId The id of the build, as returned by AzDoUtils.callPipelineRunApi().
+     @param pollFrequency The maximum poll interval of the build (in seconds).
+     @param timeout The maximum waiting time (in seconds), measured from the moment the build
+                    was queued.
+     @return A future that completes with the result of the build, including the timeline. It
+             completes with null if the response cannot be parsed, and exceptionally if the
+             status cannot be retrieved otherwise; the caller decides whether to continue. If
+             the build is already registered, the future of that registration is returned.
+     ******************************************************************************************/
+    public synchronized CompletableFuture<RunResult> register (String buildId,
+                                                               int pollFrequency,
+                                                               int timeout) {
+        logger.debug("==> Method: RunStatusMultiplexer.register");
+        logger.debug("buildId: {}", buildId);
+
+        Run run = runs.get(buildId);
+        if (run != null)
+            return run.future;
+
+        run = new Run();
+        run.buildId = buildId;
+        run.pollFrequency = pollFrequency;
+        run.timeout = timeout;
+        runs.put(buildId, run);
+
+        // A new build is polled soon; the next poll may be planned far ahead for the builds that run long
+        if (nextPoll == null || nextPoll.getDelay(TimeUnit.MILLISECONDS) > 0) {
+            if (nextPoll != null)
+                nextPoll.cancel(false);
+            nextPoll = scheduler.schedule(this::poll, 0, TimeUnit.MILLISECONDS);
+        }
+
+        return run.future;
+    }
+
+    /******************************************************************************************
+     Returns the number of builds that are not finished yet.
+     ******************************************************************************************/
+    public synchronized int size () {
+        return runs.size();
+    }
+
+    // Poll the status of all registered builds; runs on the scheduler thread
+    private void poll () {
+        logger.debug("==> Method: RunStatusMultiplexer.poll");
+
+        ArrayList<Run> polledRuns;
+        synchronized (this) {
+            nextPoll = null;
+            polledRuns = new ArrayList<>(runs.values());
+        }
+
+        try {
+            int size = polledRuns.size();
+            for (int index = 0; index < size; index += MAX_BUILDS_PER_CALL) {
+                pollBuilds(polledRuns.subList(index, Math.min(size, index + MAX_BUILDS_PER_CALL)));
+            }
+        }
+        catch (RuntimeException e) {
+            // Do not leave the futures waiting forever
+            logger.error("Retrieving the pipeline results failed: {}", e.getMessage());
+            for (int index = 0; index < polledRuns.size(); index++) {
+                Run run = polledRuns.get(index);
+                remove(run);
+                run.future.completeExceptionally(e);
+            }
+        }
+
+        scheduleNextPoll();
+    }
+
+    private void pollBuilds (List<Run> polledRuns) {
+        int size = polledRuns.size();
+        StringBuilder buildIds = new StringBuilder();
+        for (int index = 0; index < size; index++) {
+            if (index > 0)
+                buildIds.append(',');
+            buildIds.append(polledRuns.get(index).buildId);
+        }
+        String http = azdoEndpoint +
+                azdoBuildApi +
+                "?buildIds=" +
+                buildIds +
+                "&" +
+                azdoBuildApiVersion;
+
+        HttpResponse<InputStream> response = AzDoClient.of(azdoUser, azdoPat).send(http, "GET", null, HttpResponse.BodyHandlers.ofInputStream());
+        HashMap<String, BuildStatus> builds = new HashMap<>();
+        if (response != null) {
+            ArrayList<BuildStatus> buildList = null;
+            try {
+                buildList = AzDoResponseParser.getBuilds(response.body());
+            }
+            catch (IOException e) {
+                logger.debug("Cannot parse the response: {}", e.getMessage());
+            }
+            if (buildList == null) {
+                // The JVM is not exited on the poll thread; each caller applies its own continueOnError
+                logger.error("Retrieving the pipeline results failed");
+                for (int index = 0; index < size; index++) {
+                    Run run = polledRuns.get(index);
+                    remove(run);
+                    run.future.complete(null);
+                }
+                return;
+            }
+            for (int index = 0; index < buildList.size(); index++) {
+                BuildStatus build = buildList.get(index);
+                builds.put(build.id, build);
+            }
+        }
+
+        // Update the registered builds; a build that is not in the response (yet) keeps its status
+        for (int index = 0; index < size; index++) {
+            Run run = polledRuns.get(index);
+            BuildStatus build = builds.get(run.buildId);
+            String status = null;
+            String result = null;
+            boolean logged = false;
+            if (build != null) {
+                status = build.status;
+                result = build.result;
+                if (build.queueTime != null)
+                    run.queueTime = AzDoUtils.parseTime(build.queueTime);
+                if (build.startTime != null)
+                    run.startTime = AzDoUtils.parseTime(build.startTime);
+                if (run.firstPoll) {
+                    logger.info(DEMARCATION);
+                    logger.info("Buildnumber: {}", build.buildNumber);
+                    logger.info("Pipeline url: {}", build.webUrl);
+                    logger.info("BuildId: {}", run.buildId);
+                    run.firstPoll = false;
+                    logged = true;
+                }
+            }
+            RunResult runResult = new RunResult(result, status, run.buildId);
+
+            // Measure from the queue time; see AzDoUtils.callRunResult()
+            Instant since = (run.queueTime != null && run.queueTime.isBefore(run.registered)) ? run.queueTime : run.registered;
+            long timeElapsed = Duration.between(since, Instant.now()).toSeconds();
+            if (runResult.result == RunResult.Result.none && timeElapsed > (long) run.timeout) {
+                runResult.result = RunResult.Result.undetermined;
+                runResult.status = RunResult.Status.timeout;
+            }
+
+            // Log the status if it changed, or if the build is finished
+            boolean finished = runResult.result != RunResult.Result.none;
+            if (finished || runResult.status != run.status) {
+                if (!logged) {
+                    logger.info(DEMARCATION);
+                    logger.info("BuildId: {}", run.buildId);
+                }
+                AzDoUtils.logRunStatus(runResult);
+            }
+            run.status = runResult.status;
+            if (finished) {
+                remove(run);
+                complete(run, runResult);
+            }
+        }
+    }
+
+    private synchronized void remove (Run run) {
+        runs.remove(run.buildId);
+    }
+
+    // Retrieve the timeline without delaying the polling of the other builds
+    private void complete (Run run, RunResult runResult) {
+        timelineExecutor.execute(() -> {
+            try {
+                AzDoUtils.callTimelineApi(azdoUser, azdoPat, azdoEndpoint, azdoBuildApi, azdoBuildApiVersion, run.buildId, runResult);
+            }
+            finally {
+                run.future.complete(runResult);
+            }
+        });
+    }
+
+    // The next poll is planned after the shortest poll interval of the builds that are not finished yet
+    private synchronized void scheduleNextPoll () {
+        if (runs.isEmpty() || nextPoll != null)
+            return;
+
+        long delay = Long.MAX_VALUE;
+        for (Run run : runs.values()) {
+            delay = Math.min(delay, AzDoUtils.getPollInterval(run.status, run.startTime, run.pollFrequency));
+        }
+        logger.debug("Next poll of {} builds in {} ms", runs.size(), delay);
+        nextPoll = scheduler.schedule(this::poll, delay, TimeUnit.MILLISECONDS);
+    }
+}
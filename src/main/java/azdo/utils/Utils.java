@@ -5,6 +5,7 @@ package azdo.utils;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.networknt.schema.JsonSchema;
 import com.networknt.schema.JsonSchemaFactory;
@@ -16,9 +17,15 @@ import org.springframework.web.util.UriUtils;
 import java.io.*;
 import java.nio.charset.Charset;
 import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import static azdo.utils.Constants.*;
 
 /******************************************************************************************
@@ -49,8 +56,8 @@ public class Utils {
         try {
                 logger.debug("Executing...");
                 FileUtils.deleteDirectory(new File(dir));
+                FileIndex.invalidate(dir);
                 logger.debug("Deleted directory: {}", dir);
-                wait(1000);
         }
         catch (IOException e)
         {
@@ -72,7 +79,6 @@ public class Utils {
             logger.debug("Executing...");
             FileUtils.delete(new File(fileName));
             logger.debug("Deleted file: {}", fileName);
-            wait(1000);
         }
         catch (IOException e)
         {
@@ -89,60 +95,28 @@ public class Utils {
         directoryName = fixPath(directoryName);
         File dir = new File (directoryName);
         dir.mkdirs();
-        wait(1000);
     }
 
     public static void copyAll(String sourceDirectory, String destinationDirectory, String exclusionPattern)
+    {
+        copyAll(sourceDirectory, destinationDirectory, exclusionPattern, null);
+    }
+
+    /******************************************************************************************
+     Synchronize the destination directory with the source directory; only new and changed files
+     are copied and files that are removed from the source are deleted (see DirectorySync).
+     The copied and deleted files are added to 'changeSet' (if not null).
+     ******************************************************************************************/
+    public static void copyAll(String sourceDirectory, String destinationDirectory, String exclusionPattern, ChangeSet changeSet)
     {
         try {
-            copy(new File(sourceDirectory), new File(destinationDirectory), exclusionPattern);
+            DirectorySync.sync(sourceDirectory, destinationDirectory, exclusionPattern, changeSet);
             logger.debug("Directory copied successfully!");
         } catch (IOException e) {
             logger.debug("Failed to copy directory: {}", e.getMessage());
         }
     }
 
-    private static void copy(File source, File target, String exclusionPattern) throws IOException {
-        logger.debug("==> Method: Utils.copyAll");
-        logger.debug("source: {}", source);
-        logger.debug("target: {}", target);
-        logger.debug("exclusionPattern: {}", exclusionPattern);
-
-        if (!source.isDirectory()) {
-            throw new IllegalArgumentException("Source must be a directory");
-        }
-
-        if (!target.exists()) {
-            target.mkdirs();
-        }
-
-        File[] files = source.listFiles();
-        if (files == null) {
-            return;
-        }
-
-        Pattern pattern = Pattern.compile(exclusionPattern);
-        Matcher matcher;
-        for (File file : files) {
-            matcher = pattern.matcher(file.getName());
-            matcher.find();
-            if (matcher.matches()) {
-                continue; // Exclude directories matching the pattern
-            }
-
-            Path sourcePath = file.toPath();
-            Path destinationPath = new File(target, file.getName()).toPath();
-
-            if (file.isDirectory()) {
-                copy(file, new File(target, file.getName()), exclusionPattern);
-            } else {
-                Files.copy(sourcePath, destinationPath, StandardCopyOption.REPLACE_EXISTING);
-            }
-        }
-        wait(200); // Time needed to unlock files in Windows
-        logger.debug("Copied source {} to target {}", source, target);
-    }
-
     /*
        Makes sure that a path resembles the correct path on the file system
        Fortunately, Windows also accepts forward slashes
@@ -183,7 +157,9 @@ public class Utils {
     }
 
     /*
-       TODO
+       Find a file in a directory (recursively) and return its full qualified name. The file is found if its
+       full qualified name ends with 'fileName' (see FileIndex). The directory is indexed once, so subsequent
+       searches in the same directory do not access the file system.
      */
     public static String findFullQualifiedFileNameInDirectory (String directory, String fileName) {
         //logger.debug("==> Method: Utils.findFullQualifiedFileNameInDirectory");
@@ -198,43 +174,65 @@ public class Utils {
             return fileName;
         }
 
-        Path dir = Path.of(directory);
         Path f = Path.of(fileName);
         if (f != null) {
             f = f.normalize();
             fileName = f.toString();
         }
         fileName = Utils.fixPath(fileName); // Remove .. in front of the filename, because the full name is searched on the filesystem anyway
-        //fileName = fileName.replace("..", ""); // Remove .. in front of the filename, because the full name is searched on the filesystem anyway
-        String fqn = null;
-        String compare = null;
-        //logger.debug("directory: {}", directory);
-        //logger.debug("fileName: {}", fileName);
-
-        try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
-            for (Path path : stream) {
-                File pathToFile = path.toFile();
-                if (pathToFile.isDirectory()) {
-                    // It is a directory; search recursively
-                    //logger.debug("Directory: {}", pathToFile.getAbsoluteFile());
-                    fqn = findFullQualifiedFileNameInDirectory(pathToFile.toString(), fileName);
-                    if (fqn != null)
-                        return fqn;
-                }
-                else {
-                    // It is a file
-                    //logger.debug("File: {}", pathToFile.getAbsoluteFile());
-                    compare = pathToFile.getAbsoluteFile().toString();
-                    if (compare.contains(fileName)) {
-                        logger.debug("Match: Compared {} with {}", fileName, compare);
-                        return compare;
-                    }
-                }
+        String fqn = FileIndex.of(directory).find(fileName);
+        if (fqn != null)
+            logger.debug("Match: Compared {} with {}", fileName, fqn);
+
+        return fqn;
+    }
+
+    /*
+       Write a file atomically: the content is written to a temporary file in the same directory, which is then moved
+       to the file. Other processes never see a partially written file, so there is no need to wait afterwards.
+     */
+    public static void writeFileAtomically (String fileName, byte[] content) throws IOException {
+        logger.debug("==> Method: Utils.writeFileAtomically");
+        logger.debug("fileName: {}", fileName);
+
+        Path path = Paths.get(fileName).toAbsolutePath();
+        Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, content);
+
+            // A temporary file is only readable by the owner; give it the permissions of the file it replaces
+            if (temp.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                if (Files.exists(path))
+                    Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(path));
+                else
+                    Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("rw-r--r--"));
             }
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally {
+            Files.deleteIfExists(temp);
         }
-        catch(IOException e) {}
+    }
 
-        return null;
+    /*
+       Returns true if both files exist and have the same content.
+     */
+    public static boolean sameContent (String fileName1, String fileName2) {
+        try {
+            Path path1 = Paths.get(fileName1);
+            Path path2 = Paths.get(fileName2);
+            if (!Files.isRegularFile(path1) || !Files.isRegularFile(path2) || Files.size(path1) != Files.size(path2))
+                return false;
+            return Arrays.equals(Files.readAllBytes(path1), Files.readAllBytes(path2));
+        }
+        catch (IOException e) {
+            return false;
+        }
     }
 
     public static String encodePath (String path) {
@@ -279,64 +277,121 @@ public class Utils {
         }
     }
 
+    /*
+       The schema and the mapper are created once and shared by all validations; both are thread-safe once created.
+     */
+    private static class PipelineSchema {
+        static final ObjectMapper mapper = new ObjectMapper(new YAMLFactory()).disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        static final JsonSchema schema = readSchema();
+
+        private static JsonSchema readSchema() {
+            // Read the schema from the resources folder
+            try (InputStream isJsonSchema = Utils.class.getClassLoader().getResourceAsStream(JSON_SCHEMA)) {
+                if (isJsonSchema == null)
+                    return null;
+                JsonSchemaFactory factory = JsonSchemaFactory.builder(JsonSchemaFactory.getInstance(SpecVersion.VersionFlag.V7)).objectMapper(mapper).build(); /* Using draft-07. You can choose any other draft.*/
+                return factory.getSchema(isJsonSchema);
+            }
+            catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
     public static void validatePipelineFile (String fileName, boolean continueOnError) {
         logger.debug("==> Method: Utils.validatePipelineFile");
         logger.debug("fileName: {}", fileName);
 
         logger.debug(DEMARCATION);
         logger.debug("Validating {}", fileName);
+        handleValidationErrors(findPipelineFileErrors(fileName), fileName, continueOnError);
+    }
+
+    /*
+       Validate a yaml file that is already parsed (for example, the yamlMap of a YamlDocument), without reading it from disk.
+       The fileName is only used for logging.
+     */
+    public static void validatePipelineYaml (Object yaml, String fileName, boolean continueOnError) {
+        logger.debug("==> Method: Utils.validatePipelineYaml");
+        logger.debug("fileName: {}", fileName);
+
+        logger.debug(DEMARCATION);
+        logger.debug("Validating {} (in memory)", fileName);
+        handleValidationErrors(findPipelineYamlErrors(yaml, fileName), fileName, continueOnError);
+    }
 
-        // Read the schema from the resources folder
-        InputStream isJsonSchema = Utils.class.getClassLoader().getResourceAsStream(JSON_SCHEMA);
-        if (isJsonSchema == null)
+    /*
+       Validate a yaml file and return the errors, instead of logging them. The list is empty if the file is valid.
+     */
+    public static ArrayList<String> findPipelineFileErrors (String fileName) {
+        ArrayList<String> errors = new ArrayList<>();
+        if (PipelineSchema.schema == null)
         {
             logger.warn("Schema cannot not be read");
-            logger.debug(DEMARCATION);
-            return;
+            return errors;
         }
 
-        ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
-        JsonSchemaFactory factory = JsonSchemaFactory.builder(JsonSchemaFactory.getInstance(SpecVersion.VersionFlag.V7)).objectMapper(mapper).build(); /* Using draft-07. You can choose any other draft.*/
-        JsonSchema schema = factory.getSchema(isJsonSchema);
-
-        InputStream isYaml = null;
-        try {
-            isYaml = new FileInputStream(fileName);
+        JsonNode jsonNode = null;
+        try (InputStream isYaml = new FileInputStream(fileName)) {
+            jsonNode = PipelineSchema.mapper.readTree(isYaml);
         }
         catch (FileNotFoundException fnfe) {
-            logger.error("{} cannot be read", fileName);
-            logger.debug(DEMARCATION);
-            if (continueOnError) return; else System. exit(1);
-        }
-
-        JsonNode jsonNode = null;
-        try {
-            jsonNode = mapper.readTree(isYaml);
+            errors.add(fileName + " cannot be read");
+            return errors;
         }
         catch (IOException e){
-            logger.error("Cannot validate {};the file cannot be found or it is not a valid YAML file", fileName);
-            logger.debug(DEMARCATION);
-            if (continueOnError) return; else System. exit(1);
+            errors.add("Cannot validate " + fileName + ";the file cannot be found or it is not a valid YAML file");
+            return errors;
         }
 
+        return findPipelineNodeErrors(jsonNode, fileName);
+    }
+
+    /*
+       Validate a yaml file that is already parsed and return the errors. The list is empty if the yaml is valid.
+     */
+    public static ArrayList<String> findPipelineYamlErrors (Object yaml, String fileName) {
+        if (PipelineSchema.schema == null)
+        {
+            logger.warn("Schema cannot not be read");
+            return new ArrayList<>();
+        }
+
+        JsonNode jsonNode = yaml == null ? null : PipelineSchema.mapper.valueToTree(yaml);
+        return findPipelineNodeErrors(jsonNode, fileName);
+    }
+
+    private static ArrayList<String> findPipelineNodeErrors (JsonNode jsonNode, String fileName) {
+        ArrayList<String> errors = new ArrayList<>();
+
         // If jsonNode is null, the yaml was not valid
         if (jsonNode == null) {
-            logger.error("File {} is not a valid YAML file", fileName);
-            logger.debug(DEMARCATION);
-            if (continueOnError) return; else System. exit(1);
+            errors.add("File " + fileName + " is not a valid YAML file");
+            return errors;
         }
 
-        Set<ValidationMessage> validateMsg = schema.validate(jsonNode);
+        Set<ValidationMessage> validateMsg = PipelineSchema.schema.validate(jsonNode);
         int size = validateMsg.size();
         if (size > 0) {
             int i = 0;
             int maxErr = size < MAX_VAL_ERR ? size : MAX_VAL_ERR;
             for (ValidationMessage msg : validateMsg) {
-                logger.error("Validation type [{}]; Error: {}", msg.getType(), msg.getMessage());
+                errors.add("Validation type [" + msg.getType() + "]; Error: " + msg.getMessage());
                 if (i >= maxErr)
                     break;
                 i++;
             }
+        }
+
+        return errors;
+    }
+
+    private static void handleValidationErrors (ArrayList<String> errors, String fileName, boolean continueOnError) {
+        if (!errors.isEmpty()) {
+            int size = errors.size();
+            for (int i = 0; i < size; i++) {
+                logger.error(errors.get(i));
+            }
             logger.debug(DEMARCATION);
             if (continueOnError) return; else System. exit(1);
         }
@@ -384,6 +439,45 @@ public class Utils {
         return file.replaceAll(extPattern, "");
     }
 
+    /******************************************************************************************
+     Returns a deep copy of a yaml object structure, as created by snakeyaml. Maps, lists and
+     sets are copied recursively (preserving the order); immutable values (strings, numbers,
+     booleans) are shared.
+     @param object A yaml map or any element of it.
+     ******************************************************************************************/
+    public static Object deepCopy (Object object) {
+        if (object instanceof Map) {
+            Map<Object, Object> map = (Map<Object, Object>) object;
+            Map<Object, Object> copy = new LinkedHashMap<>(map.size() * 4 / 3 + 1);
+            for (Map.Entry<Object, Object> entry : map.entrySet()) {
+                copy.put(entry.getKey(), deepCopy(entry.getValue()));
+            }
+            return copy;
+        }
+        if (object instanceof List) {
+            List<Object> list = (List<Object>) object;
+            int size = list.size();
+            ArrayList<Object> copy = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                copy.add(deepCopy(list.get(i)));
+            }
+            return copy;
+        }
+        if (object instanceof Set) {
+            Set<Object> copy = new LinkedHashSet<>();
+            for (Object element : (Set<Object>) object) {
+                copy.add(deepCopy(element));
+            }
+            return copy;
+        }
+        if (object instanceof Date)
+            return ((Date) object).clone();
+        if (object instanceof byte[])
+            return ((byte[]) object).clone();
+
+        return object;
+    }
+
     public static void wait(int ms)
     {
         try
@@ -0,0 +1,132 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.yaml;
+
+import azdo.action.Action;
+import azdo.utils.LiteralMatcher;
+import azdo.utils.Log;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/******************************************************************************************
+ An ActionPlan contains actions that are recorded, but not yet executed. This is used if
+ the property 'actions.deferred' is true. The plan is applied just before the yaml files are
+ dumped. All documents (the main pipeline file and its templates) are handled one by one; for
+ each document, the complete plan is applied in the order in which the actions were recorded.
+ Actions that did not match any section in any of the documents are reported.
+ For an action on a selector with multiple section types, the section type is determined when
+ the plan is applied, before any action is executed: it is the first section type of the
+ selector (see SectionSelector.getSectionTypes()) that matches a section in any of the
+ documents. Only sections of that type are changed, as when the action is executed
+ immediately. Note that, because the type is determined up front, it does not take into
+ account sections that are inserted or deleted by earlier actions in the plan.
+ *******************************************************************************************/
+public class ActionPlan {
+    private static final Log logger = Log.getLogger();
+    private ArrayList<PlannedAction> plannedActions = new ArrayList<>();
+    private ArrayList<String> unmatchedActions = new ArrayList<>();
+
+    private static class PlannedAction {
+        String description;
+        Predicate<YamlDocument> applier; // Applies the action to one document; returns true if it was executed
+        Consumer<ArrayList<YamlDocument>> preparer; // Called with all documents before the plan is applied; may be null
+        boolean matched = false;
+
+        PlannedAction(String description, Predicate<YamlDocument> applier) {
+            this(description, applier, null);
+        }
+
+        PlannedAction(String description, Predicate<YamlDocument> applier, Consumer<ArrayList<YamlDocument>> preparer) {
+            this.description = description;
+            this.applier = applier;
+            this.preparer = preparer;
+        }
+    }
+
+    public void add (Action action, String sectionType, String sectionIdentifier) {
+        String description = action.getClass().getSimpleName() + " (sectionType: " + sectionType + ", sectionIdentifier: " + sectionIdentifier + ")";
+        logger.debug("Add to action plan: {}", description);
+        plannedActions.add(new PlannedAction(description,
+                yamlDocument -> yamlDocument.performActionOnThis(action, sectionType, sectionIdentifier).actionExecuted));
+    }
+
+    public void add (SectionSelector selector, Function<String, Action> actionFactory) {
+        String description = "Action on selector: " + selector.getExpression();
+        logger.debug("Add to action plan: {}", description);
+        String[] sectionType = new String[1]; // Determined by resolveSectionType() when the plan is applied
+        plannedActions.add(new PlannedAction(description,
+                yamlDocument -> sectionType[0] != null && yamlDocument.performActionOnThis(selector, actionFactory, sectionType[0]).actionExecuted,
+                yamlDocuments -> sectionType[0] = resolveSectionType(selector, yamlDocuments)));
+    }
+
+    // Returns the first section type of the selector that is found in any of the documents; null if none is found.
+    // The selector is matched once per document.
+    private static String resolveSectionType (SectionSelector selector, ArrayList<YamlDocument> yamlDocuments) {
+        return YamlDocument.firstSectionType(selector, YamlDocument.match(yamlDocuments, selector));
+    }
+
+    public void addOverrideLiterals (Map<String, String> literals, boolean replaceAll) {
+        String description = "Override literals " + literals.keySet();
+        logger.debug("Add to action plan: {}", description);
+        LiteralMatcher literalMatcher = new LiteralMatcher(new ArrayList<>(literals.keySet()));
+        ArrayList<String> newValues = new ArrayList<>(literals.values());
+        plannedActions.add(new PlannedAction(description,
+                yamlDocument -> yamlDocument.overrideLiteralsOnThis(literalMatcher, newValues, replaceAll) > 0));
+    }
+
+    public boolean isEmpty () {
+        return plannedActions.isEmpty();
+    }
+
+    /******************************************************************************************
+     Apply the plan to the main document and all its templates. Afterwards, the plan is empty.
+     @param mainYamlDocument The main pipeline document.
+     @return The descriptions of the actions that did not match any section.
+     ******************************************************************************************/
+    public ArrayList<String> apply (YamlDocument mainYamlDocument) {
+        logger.debug("==> Method: ActionPlan.apply");
+        logger.debug("Number of planned actions: {}", plannedActions.size());
+
+        ArrayList<YamlDocument> yamlDocuments = new ArrayList<>();
+        mainYamlDocument.collectDocuments(yamlDocuments);
+        int documentSize = yamlDocuments.size();
+        int actionSize = plannedActions.size();
+        YamlDocument yamlDocument;
+        PlannedAction plannedAction;
+        for (int j = 0; j < actionSize; j++) {
+            plannedAction = plannedActions.get(j);
+            if (plannedAction.preparer != null)
+                plannedAction.preparer.accept(yamlDocuments);
+        }
+        for (int i = 0; i < documentSize; i++) {
+            yamlDocument = yamlDocuments.get(i);
+            for (int j = 0; j < actionSize; j++) {
+                plannedAction = plannedActions.get(j);
+                if (plannedAction.applier.test(yamlDocument))
+                    plannedAction.matched = true;
+            }
+        }
+
+        // Report the actions that did not match anything
+        unmatchedActions = new ArrayList<>();
+        for (int j = 0; j < actionSize; j++) {
+            plannedAction = plannedActions.get(j);
+            if (!plannedAction.matched) {
+                logger.warn("Action did not match any section: {}", plannedAction.description);
+                unmatchedActions.add(plannedAction.description);
+            }
+        }
+        plannedActions.clear();
+
+        return unmatchedActions;
+    }
+
+    // Returns the actions that did not match anything in the last apply()
+    public ArrayList<String> getUnmatchedActions () {
+        return unmatchedActions;
+    }
+}
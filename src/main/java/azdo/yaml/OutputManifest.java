@@ -0,0 +1,104 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.yaml;
+
+import azdo.utils.Log;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/******************************************************************************************
+ The OutputManifest contains the content hash (SHA-256) of each yaml file that was dumped,
+ together with the size and modification time of the file after it was written. It is used
+ to determine whether a dumped file must be written again: if the new content has the same
+ hash and the file was not changed on disk since it was written, writing is skipped.
+ The manifest is shared by all YamlDocument objects in the JVM.
+ *******************************************************************************************/
+public class OutputManifest {
+    private static final Log logger = Log.getLogger();
+    private static final HashMap<String, ManifestEntry> manifest = new HashMap<>();
+
+    private static class ManifestEntry {
+        byte[] hash;
+        long size;
+        long lastModified; // In nanoseconds, if the file system supports it
+
+        ManifestEntry(byte[] hash, long size, long lastModified) {
+            this.hash = hash;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private OutputManifest() {}
+
+    /******************************************************************************************
+     Returns true if 'content' was the last content written to 'fileName' and the file was not
+     changed since.
+     ******************************************************************************************/
+    public static boolean isUnchanged (String fileName, byte[] content) {
+        Path path = Paths.get(fileName).toAbsolutePath().normalize();
+        ManifestEntry entry;
+        synchronized (manifest) {
+            entry = manifest.get(path.toString());
+        }
+        if (entry == null || entry.size != content.length)
+            return false;
+
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (attributes.size() != entry.size || attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS) != entry.lastModified)
+                return false;
+        }
+        catch (IOException e) {
+            return false;
+        }
+
+        return Arrays.equals(entry.hash, hash(content));
+    }
+
+    /******************************************************************************************
+     Record that 'content' was written to 'fileName'; this must be called after the file is
+     written.
+     ******************************************************************************************/
+    public static void record (String fileName, byte[] content) {
+        Path path = Paths.get(fileName).toAbsolutePath().normalize();
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            ManifestEntry entry = new ManifestEntry(hash(content), attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+            synchronized (manifest) {
+                manifest.put(path.toString(), entry);
+            }
+        }
+        catch (IOException e) {
+            logger.debug("Cannot read the attributes of {}; it is not added to the manifest", fileName);
+            synchronized (manifest) {
+                manifest.remove(path.toString());
+            }
+        }
+    }
+
+    public static void clear () {
+        synchronized (manifest) {
+            manifest.clear();
+        }
+    }
+
+    private static byte[] hash (byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,291 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.yaml;
+
+import azdo.utils.Log;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/******************************************************************************************
+ A SectionIndex contains all key/value entries of one YAML document (a pipeline file or a
+ template file), so a section can be found by means of a lookup instead of walking through
+ the complete yaml map.
+ Entries are stored by key ('stage', 'script', 'displayName', ...) and by scalar value
+ ('my_stage', 'Bash@3', ...), in the order in which they appear in the document. Each
+ entry refers to the section (map) it belongs to, to the nearest list that encloses this
+ section, and to the position in that list.
+
+ The index is built when the YAML file is read. If an action changes the document, only the
+ part of the index that belongs to the changed map or list is updated (see update()): the
+ entries of the old content are removed and entries for the new content are added, so
+ deleted, inserted and replaced sections and changed scalars are handled without walking the
+ complete document. To keep the document order without renumbering all entries, each map or
+ list reserves a range of order numbers; the new content is numbered within the range of the
+ changed map or list. If the range is too small, or if the document contains the same map or
+ list more than once (a YAML alias), the index is rebuilt instead.
+ *******************************************************************************************/
+public class SectionIndex {
+    private static final Log logger = Log.getLogger();
+    private static final long GAP = 1L << 20; // Distance between the order numbers of a new index; leaves room for inserted sections
+    private Map<String, ArrayList<IndexEntry>> entries = new HashMap<>();
+    private IdentityHashMap<Object, Node> nodes = new IdentityHashMap<>(); // Map or list -> its part of the index
+    private boolean valid = false;
+    private boolean updatable = true; // False if a map or list occurs more than once in the document
+    private long order = 0; // The next order number while indexing
+    private long step = GAP; // The distance between order numbers while indexing
+
+    /******************************************************************************************
+     One key/value entry in a section.
+     *******************************************************************************************/
+    public static class IndexEntry {
+        public final Map<String, Object> section; // The section (map) that contains the key
+        public final String key; // The key of the entry; for example 'stage'
+        public final ArrayList<Object> parentList; // Nearest list that encloses the section; null if there is none
+        public final int position; // Position in parentList of the element that contains the section; -1 if there is no parentList
+        final String valueToken; // The scalar value under which the entry is stored as well; null if there is none
+        final long order; // Position of the entry in the document
+
+        IndexEntry(Map<String, Object> section, String key, ArrayList<Object> parentList, int position, String valueToken, long order) {
+            this.section = section;
+            this.key = key;
+            this.parentList = parentList;
+            this.position = position;
+            this.valueToken = valueToken;
+            this.order = order;
+        }
+
+        // Return the actual value
+        public Object getValue() {
+            return section.get(key);
+        }
+    }
+
+    // The part of the index that belongs to one map or list
+    private static class Node {
+        final ArrayList<Object> parentList; // The parentList and position of the entries of a map
+        final int position;
+        long start; // The order numbers in [start, end) are reserved for this map or list
+        long end;
+        ArrayList<IndexEntry> entries = new ArrayList<>(); // The entries of a map
+        ArrayList<Object> children = new ArrayList<>(); // The maps and lists directly inside this map or list
+
+        Node(ArrayList<Object> parentList, int position) {
+            this.parentList = parentList;
+            this.position = position;
+        }
+    }
+
+    /******************************************************************************************
+     (Re)build the index of a yaml map.
+     @param yamlMap The map of the pipeline or template file.
+     *******************************************************************************************/
+    public void build(Map<String, Object> yamlMap) {
+        logger.debug("==> Method: SectionIndex.build");
+
+        entries = new HashMap<>();
+        nodes = new IdentityHashMap<>();
+        updatable = true;
+        order = 0;
+        step = GAP;
+        if (yamlMap != null)
+            index(yamlMap, null, -1);
+        valid = true;
+    }
+
+    public void invalidate() {
+        valid = false;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    /******************************************************************************************
+     Update the index after the content of a map or list in the document has changed; for
+     example, a section is inserted into or deleted from a list, or a value in a section is
+     changed. All changes must be inside 'node' (which itself must still be in the document).
+     If the node is not part of the index, the index is invalidated, so it is rebuilt when it is
+     used again.
+     @param node The changed map or list; for example, the parentList of the changed section.
+     *******************************************************************************************/
+    public void update(Object node) {
+        logger.debug("==> Method: SectionIndex.update");
+
+        if (!valid)
+            return;
+        Node oldNode = nodes.get(node);
+        if (oldNode == null || !updatable) {
+            invalidate();
+            return;
+        }
+
+        // Remove the entries of the old content
+        remove(oldNode);
+        nodes.remove(node);
+
+        // Number the new content within the range of the old content
+        long count = count(node);
+        long newStep = (oldNode.end - oldNode.start) / count;
+        if (newStep < 1) {
+            logger.debug("No room in the index to add {} entries; rebuild it", count);
+            invalidate();
+            return;
+        }
+        order = oldNode.start;
+        step = newStep;
+        index(node, oldNode.parentList, oldNode.position);
+        step = GAP;
+        nodes.get(node).end = oldNode.end;
+        if (!updatable)
+            invalidate();
+    }
+
+    /******************************************************************************************
+     Return all entries with a key or a scalar value equal to 'token', in document order.
+     @param token A section type ('stage', 'task', ...) or a section identifier ('Bash@3').
+     *******************************************************************************************/
+    public ArrayList<IndexEntry> lookup(String token) {
+        ArrayList<IndexEntry> list = entries.get(token);
+        if (list == null)
+            return new ArrayList<>();
+
+        return list;
+    }
+
+    private void index(Object node, ArrayList<Object> parentList, int position) {
+        if (!(node instanceof Map) && !(node instanceof ArrayList))
+            return;
+
+        // A map or list that occurs more than once (an alias) cannot be updated in one place
+        Node indexNode = new Node(parentList, position);
+        if (nodes.put(node, indexNode) != null)
+            updatable = false;
+        indexNode.start = order;
+        order += step;
+
+        if (node instanceof Map) {
+            Map<Object, Object> map = (Map<Object, Object>) node;
+            for (Map.Entry<Object, Object> entry : map.entrySet()) {
+                Object value = entry.getValue();
+
+                // In certain cases the key is not a String (snakeyaml translates the key 'on' into a boolean);
+                // these entries cannot be found, but their inner sections can
+                if (entry.getKey() instanceof String && value != null) {
+                    String key = (String) entry.getKey();
+                    String valueToken = isScalar(value) && !key.equals(value.toString()) ? value.toString() : null;
+                    IndexEntry indexEntry = new IndexEntry((Map<String, Object>) node, key, parentList, position, valueToken, order);
+                    order += step;
+                    indexNode.entries.add(indexEntry);
+                    add(key, indexEntry);
+                    if (valueToken != null)
+                        add(valueToken, indexEntry);
+                }
+
+                // Go a level deeper
+                if (value instanceof Map || value instanceof ArrayList) {
+                    indexNode.children.add(value);
+                    index(value, parentList, position);
+                }
+            }
+        }
+
+        if (node instanceof ArrayList) {
+            ArrayList<Object> list = (ArrayList<Object>) node;
+            int size = list.size();
+            for (int i = 0; i < size; i++) {
+                Object element = list.get(i);
+                if (element instanceof Map || element instanceof ArrayList) {
+                    indexNode.children.add(element);
+                    index(element, list, i);
+                }
+            }
+        }
+
+        indexNode.end = order;
+    }
+
+    // Remove the entries of a node and of the nodes inside it, as they were indexed
+    private void remove(Node node) {
+        int size = node.entries.size();
+        for (int i = 0; i < size; i++) {
+            IndexEntry indexEntry = node.entries.get(i);
+            removeEntry(indexEntry.key, indexEntry);
+            if (indexEntry.valueToken != null)
+                removeEntry(indexEntry.valueToken, indexEntry);
+        }
+        size = node.children.size();
+        for (int i = 0; i < size; i++) {
+            Node child = nodes.remove(node.children.get(i));
+            if (child != null)
+                remove(child);
+        }
+    }
+
+    // Count the order numbers needed to index a map or list: one for the node itself and one per entry
+    private static long count(Object node) {
+        long count = 1;
+        if (node instanceof Map) {
+            for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) node).entrySet()) {
+                Object value = entry.getValue();
+                if (entry.getKey() instanceof String && value != null)
+                    count++;
+                if (value instanceof Map || value instanceof ArrayList)
+                    count += count(value);
+            }
+        }
+        if (node instanceof ArrayList) {
+            ArrayList<Object> list = (ArrayList<Object>) node;
+            int size = list.size();
+            for (int i = 0; i < size; i++) {
+                Object element = list.get(i);
+                if (element instanceof Map || element instanceof ArrayList)
+                    count += count(element);
+            }
+        }
+
+        return count;
+    }
+
+    // Add an entry; the entries of a token are kept in document order
+    private void add(String token, IndexEntry indexEntry) {
+        ArrayList<IndexEntry> list = entries.computeIfAbsent(token, k -> new ArrayList<>());
+        int size = list.size();
+        if (size == 0 || list.get(size - 1).order < indexEntry.order)
+            list.add(indexEntry);
+        else
+            list.add(find(list, indexEntry.order), indexEntry);
+    }
+
+    private void removeEntry(String token, IndexEntry indexEntry) {
+        ArrayList<IndexEntry> list = entries.get(token);
+        if (list == null)
+            return;
+        int i = find(list, indexEntry.order);
+        if (i < list.size() && list.get(i) == indexEntry)
+            list.remove(i);
+        if (list.isEmpty())
+            entries.remove(token);
+    }
+
+    // Binary search; returns the position of the first entry with an order number >= 'order'
+    private static int find(ArrayList<IndexEntry> list, long order) {
+        int low = 0;
+        int high = list.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (list.get(middle).order < order)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        return low;
+    }
+
+    private static boolean isScalar(Object value) {
+        return value instanceof String || value instanceof Number || value instanceof Boolean;
+    }
+}
@@ -0,0 +1,378 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.yaml;
+
+import azdo.utils.Log;
+import java.util.ArrayList;
+import java.util.Map;
+
+/******************************************************************************************
+ A SectionSelector describes the location of one or more sections in a YAML document, using
+ a path expression. The expression is compiled once and can be matched against any number of
+ documents. Example:
+ {@code
+ stages/stage[name=build]/jobs/job[*]/steps/script[displayName='Testing, testing']
+ }
+ Syntax:
+ - Steps are separated by a slash (/). A step is the name of a key in the YAML. Matching a
+   step results in a section (the map that contains the key); the next step is applied to the
+   value of the key if this value is a list or a map, otherwise it is applied to the section
+   itself (so 'stage[build]/jobs' finds the jobs of stage 'build').
+ - If the expression starts with a slash, the first step must be found in the root of the
+   document. Otherwise, the first step may be found anywhere in the document.
+ - A step may contain alternatives, separated by a pipe (|); 'task|script|bash|pwsh' matches
+   any of these section types.
+ - A step may contain one or more predicates between square brackets:
+   [*]                  Any section (the default)
+   [identifier]         The value of the key equals the identifier; 'task[Bash@3]'
+   [property=value]     The section contains a property with the given value;
+                        'script[displayName=Deploy]'. If a section does not contain a property
+                        'name', then [name=value] is the same as [value]; 'stage[name=build]'.
+   Values containing a slash, bracket, pipe or comma must be quoted, using single or double
+   quotes. A quote inside a quoted value is escaped by doubling it; see quote().
+ - Multiple expressions can be combined into one selector, separated by a comma (,). The
+   matches are returned in the order of the expressions.
+ The section types of a selector are the names in the last step of each expression, in the
+ order in which they appear; 'script|bash[Deploy], task[Bash@3]' has the section types
+ 'script', 'bash' and 'task'. Actions use this order as priority; see
+ YamlDocument.performAction().
+ *******************************************************************************************/
+public class SectionSelector {
+    private static final Log logger = Log.getLogger();
+    private static final String PROPERTY_NAME = "name";
+    private String expression;
+    private ArrayList<ArrayList<Step>> paths = new ArrayList<>();
+    private ArrayList<Boolean> anchored = new ArrayList<>();
+    private ArrayList<String> sectionTypes = new ArrayList<>();
+
+    /******************************************************************************************
+     The result of matching a selector; it contains the section that matched the last step of
+     the expression.
+     *******************************************************************************************/
+    public static class SectionMatch {
+        public final Map<String, Object> section; // The section (map) that matched
+        public final String sectionType; // The key in the section that matched; for example 'script'
+        public final ArrayList<Object> parentList; // Nearest list that encloses the section; null if there is none
+
+        SectionMatch(Map<String, Object> section, String sectionType, ArrayList<Object> parentList) {
+            this.section = section;
+            this.sectionType = sectionType;
+            this.parentList = parentList;
+        }
+
+        public Object getValue() {
+            return section.get(sectionType);
+        }
+    }
+
+    private static class Step {
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<String> properties = new ArrayList<>(); // null entry means the identifier is compared
+        ArrayList<String> values = new ArrayList<>();
+    }
+
+    private SectionSelector(String expression) {
+        this.expression = expression;
+    }
+
+    /******************************************************************************************
+     Compile a selector expression.
+     @param expression The expression; see the class description for the syntax.
+     @throws IllegalArgumentException if the expression is not valid.
+     *******************************************************************************************/
+    public static SectionSelector compile(String expression) {
+        logger.debug("==> Method: SectionSelector.compile");
+        logger.debug("expression: {}", expression);
+
+        if (expression == null || expression.trim().isEmpty())
+            throw new IllegalArgumentException("Selector expression is empty");
+
+        SectionSelector selector = new SectionSelector(expression);
+        ArrayList<String> parts = split(expression, ',');
+        int size = parts.size();
+        for (int i = 0; i < size; i++) {
+            String part = parts.get(i).trim();
+            boolean isAnchored = part.startsWith("/");
+            if (isAnchored)
+                part = part.substring(1);
+            ArrayList<String> stepExpressions = split(part, '/');
+            ArrayList<Step> steps = new ArrayList<>();
+            int stepSize = stepExpressions.size();
+            for (int j = 0; j < stepSize; j++) {
+                steps.add(compileStep(stepExpressions.get(j).trim(), expression));
+            }
+            selector.paths.add(steps);
+            selector.anchored.add(isAnchored);
+
+            // The section types are the names in the last step
+            ArrayList<String> names = steps.get(stepSize - 1).names;
+            for (int j = 0; j < names.size(); j++) {
+                if (!selector.sectionTypes.contains(names.get(j)))
+                    selector.sectionTypes.add(names.get(j));
+            }
+        }
+
+        return selector;
+    }
+
+    /******************************************************************************************
+     Create a selector for one or more section types with a certain property value. The result
+     is the same as compiling 'type1|type2|...[property=propertyValue]'.
+     If 'property' is null, the 'propertyValue' is compared with the value of the section type
+     (the identifier).
+     *******************************************************************************************/
+    public static SectionSelector of(ArrayList<String> sectionTypes,
+                                     String property,
+                                     String propertyValue) {
+        String expression = String.join("|", sectionTypes);
+        if (propertyValue != null) {
+            if (property == null)
+                expression += "[" + quote(propertyValue) + "]";
+            else
+                expression += "[" + property + "=" + quote(propertyValue) + "]";
+        }
+
+        return compile(expression);
+    }
+
+    /******************************************************************************************
+     Quote a value, so it can be used in a predicate of a selector expression.
+     *******************************************************************************************/
+    public static String quote(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    /******************************************************************************************
+     Return the section types of the selector, in order of priority.
+     *******************************************************************************************/
+    public ArrayList<String> getSectionTypes() {
+        return sectionTypes;
+    }
+
+    /******************************************************************************************
+     Return all sections in the yaml map that match the selector. The SectionIndex of the
+     document is used to find the candidates of the first step, so the yaml map is traversed
+     only once, whatever the number of section types in the selector.
+     @param yamlMap The map of the pipeline or template file.
+     @param sectionIndex The (valid) index of this yaml map.
+     *******************************************************************************************/
+    public ArrayList<SectionMatch> match(Map<String, Object> yamlMap, SectionIndex sectionIndex) {
+        logger.debug("==> Method: SectionSelector.match");
+        logger.debug("expression: {}", expression);
+
+        ArrayList<SectionMatch> matches = new ArrayList<>();
+        if (yamlMap == null)
+            return matches;
+
+        int size = paths.size();
+        for (int i = 0; i < size; i++) {
+            ArrayList<Step> steps = paths.get(i);
+            Step first = steps.get(0);
+            if (anchored.get(i)) {
+                matchStep(yamlMap, null, steps, 0, matches);
+                continue;
+            }
+
+            // The first step can be anywhere in the document; use the index to find the candidates
+            int nameSize = first.names.size();
+            for (int j = 0; j < nameSize; j++) {
+                String name = first.names.get(j);
+                ArrayList<SectionIndex.IndexEntry> entries = sectionIndex.lookup(name);
+                int entrySize = entries.size();
+                for (int k = 0; k < entrySize; k++) {
+                    SectionIndex.IndexEntry entry = entries.get(k);
+                    if (name.equals(entry.key) && entry.getValue() != null && matchPredicates(entry.section, name, first))
+                        next(entry.section, name, entry.parentList, steps, 1, matches);
+                }
+            }
+        }
+        logger.debug("Number of matches: {}", matches.size());
+
+        return matches;
+    }
+
+    // Apply step 'stepIndex' to a node
+    private void matchStep(Object node,
+                           ArrayList<Object> parentList,
+                           ArrayList<Step> steps,
+                           int stepIndex,
+                           ArrayList<SectionMatch> matches) {
+        Step step = steps.get(stepIndex);
+        int nameSize = step.names.size();
+
+        if (node instanceof Map) {
+            Map<String, Object> section = (Map<String, Object>) node;
+            for (int i = 0; i < nameSize; i++) {
+                String name = step.names.get(i);
+                if (section.get(name) != null && matchPredicates(section, name, step))
+                    next(section, name, parentList, steps, stepIndex + 1, matches);
+            }
+        }
+
+        if (node instanceof ArrayList) {
+            ArrayList<Object> list = (ArrayList<Object>) node;
+            int size = list.size();
+            for (int i = 0; i < size; i++) {
+                if (list.get(i) instanceof Map)
+                    matchStep(list.get(i), list, steps, stepIndex, matches);
+            }
+        }
+    }
+
+    // A step matched; continue with the next step, or add the match if it was the last step
+    private void next(Map<String, Object> section,
+                      String name,
+                      ArrayList<Object> parentList,
+                      ArrayList<Step> steps,
+                      int stepIndex,
+                      ArrayList<SectionMatch> matches) {
+        if (stepIndex >= steps.size()) {
+            matches.add(new SectionMatch(section, name, parentList));
+            return;
+        }
+
+        Object value = section.get(name);
+        if (value instanceof Map || value instanceof ArrayList)
+            matchStep(value, parentList, steps, stepIndex, matches);
+        else
+            matchStep(section, parentList, steps, stepIndex, matches);
+    }
+
+    private static boolean matchPredicates(Map<String, Object> section, String name, Step step) {
+        int size = step.values.size();
+        for (int i = 0; i < size; i++) {
+            String property = step.properties.get(i);
+            String value = step.values.get(i);
+            Object actual;
+            if (property == null || (PROPERTY_NAME.equals(property) && !section.containsKey(PROPERTY_NAME)))
+                actual = section.get(name);
+            else
+                actual = section.get(property);
+            if (actual == null || !value.equals(actual.toString()))
+                return false;
+        }
+
+        return true;
+    }
+
+    private static Step compileStep(String stepExpression, String expression) {
+        Step step = new Step();
+        int bracket = stepExpression.indexOf('[');
+        String names = bracket < 0 ? stepExpression : stepExpression.substring(0, bracket);
+        for (String name : names.split("\\|", -1)) {
+            name = name.trim();
+            if (name.isEmpty())
+                throw new IllegalArgumentException("Missing section type in selector: " + expression);
+            step.names.add(name);
+        }
+        if (bracket < 0)
+            return step;
+
+        // Parse the predicates
+        int pos = bracket;
+        int length = stepExpression.length();
+        while (pos < length) {
+            if (stepExpression.charAt(pos) != '[')
+                throw new IllegalArgumentException("Expected '[' at position " + pos + " of step '" + stepExpression + "' in selector: " + expression);
+            int end = findClosingBracket(stepExpression, pos);
+            if (end < 0)
+                throw new IllegalArgumentException("Missing ']' in step '" + stepExpression + "' of selector: " + expression);
+            String predicate = stepExpression.substring(pos + 1, end).trim();
+            int equals = indexOfUnquoted(predicate, '=');
+            if (equals < 0) {
+                if (!"*".equals(predicate)) {
+                    step.properties.add(null);
+                    step.values.add(unquote(predicate));
+                }
+            }
+            else {
+                step.properties.add(predicate.substring(0, equals).trim());
+                step.values.add(unquote(predicate.substring(equals + 1).trim()));
+            }
+            pos = end + 1;
+        }
+
+        return step;
+    }
+
+    // Split the expression on a separator that is not part of a quoted value or a predicate
+    private static ArrayList<String> split(String expression, char separator) {
+        ArrayList<String> parts = new ArrayList<>();
+        StringBuilder part = new StringBuilder();
+        char quote = 0;
+        int depth = 0;
+        int length = expression.length();
+        for (int i = 0; i < length; i++) {
+            char c = expression.charAt(i);
+            if (quote != 0) {
+                if (c == quote)
+                    quote = 0;
+            }
+            else if (c == '\'' || c == '"')
+                quote = c;
+            else if (c == '[')
+                depth++;
+            else if (c == ']')
+                depth--;
+            else if (c == separator && depth == 0) {
+                parts.add(part.toString());
+                part.setLength(0);
+                continue;
+            }
+            part.append(c);
+        }
+        if (quote != 0 || depth != 0)
+            throw new IllegalArgumentException("Unbalanced quotes or brackets in selector: " + expression);
+        parts.add(part.toString());
+
+        return parts;
+    }
+
+    private static int findClosingBracket(String stepExpression, int start) {
+        char quote = 0;
+        int length = stepExpression.length();
+        for (int i = start + 1; i < length; i++) {
+            char c = stepExpression.charAt(i);
+            if (quote != 0) {
+                if (c == quote)
+                    quote = 0;
+            }
+            else if (c == '\'' || c == '"')
+                quote = c;
+            else if (c == ']')
+                return i;
+        }
+
+        return -1;
+    }
+
+    private static int indexOfUnquoted(String predicate, char character) {
+        int length = predicate.length();
+        for (int i = 0; i < length; i++) {
+            char c = predicate.charAt(i);
+            if (c == '\'' || c == '"')
+                return -1;
+            if (c == character)
+                return i;
+        }
+
+        return -1;
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2) {
+            char first = value.charAt(0);
+            if ((first == '\'' || first == '"') && value.charAt(value.length() - 1) == first) {
+                String quoteString = String.valueOf(first);
+                return value.substring(1, value.length() - 1).replace(quoteString + quoteString, quoteString);
+            }
+        }
+
+        return value;
+    }
+}
@@ -4,18 +4,32 @@
 package azdo.yaml;
 
 import azdo.action.Action;
-import azdo.action.ActionReturnPropertyValue;
+import azdo.utils.LiteralMatcher;
 import azdo.utils.Log;
 import azdo.utils.Utils;
 import org.yaml.snakeyaml.DumperOptions;
 import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.nodes.NodeId;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.resolver.Resolver;
 import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
 import static azdo.utils.Constants.*;
 
 /******************************************************************************************
@@ -24,8 +38,15 @@ import static azdo.utils.Constants.*;
  *******************************************************************************************/
 public class YamlDocument {
     private static final Log logger = Log.getLogger();
+    private static final ThreadLocal<Yaml> dumper = ThreadLocal.withInitial(YamlDocument::createDumper); // A Yaml object is not thread-safe, but it can be reused
+    private static final Resolver resolver = new Resolver(); // Resolves the type of a plain scalar, the same way as when a yaml file is read
+    public static final int MAX_PARALLELISM = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors())); // Bounds the number of documents that are read or validated (or repositories pushed, or files copied) in parallel
+    private static ForkJoinPool pool = null; // Shared by all documents; see getPool()
     private Map<String, Object> yamlMap; // Map of the pipeline/template yaml file.
+    private Map<String, Object> pristineYamlMap; // Copy of yamlMap as it was read from file; it is never manipulated.
     private ArrayList<YamlTemplate> yamlTemplateList = new ArrayList<>(); // Contains an array with templates referred in the yaml file associated with this YamlDocument.
+    private SectionIndex sectionIndex = new SectionIndex(); // Index of the sections in yamlMap; used to find a section without parsing the complete yamlMap.
+    private boolean dirty = false; // True if yamlMap may differ from the source file.
     protected String rootInputFile; // The main yaml document, including the root path within the repository
     protected String sourcePath; // The path of the repository that contains the original main yaml document.
     protected String targetPath; // The path of the repository that contains the main yaml document.
@@ -94,12 +115,12 @@ public class YamlDocument {
         }
 
         try {
-            // Read the yaml file
-            Yaml yaml = new Yaml();
-            File file = new File(sourceInputFile);
-            InputStream inputStream = new FileInputStream(file);
-            yamlMap = yaml.load(inputStream);
+            // Read the yaml file; if it was read before (and did not change), the cached content is used
+            yamlMap = YamlFileCache.load(sourceInputFile);
             logger.debug("YamlMap: {}", yamlMap);
+            pristineYamlMap = (Map<String, Object>) Utils.deepCopy(yamlMap);
+            sectionIndex.build(yamlMap);
+            dirty = false;
         } catch (Exception e) {
             // This is a warning and not an error
             // Reason is that it may find a false-positive template file
@@ -115,9 +136,58 @@ public class YamlDocument {
         return yamlMap;
     }
 
+    private static Yaml createDumper () {
+        final DumperOptions options = new DumperOptions();
+        options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+        options.setPrettyFlow(true);
+        return new Yaml(options);
+    }
+
+    // The yaml map is changed anywhere; the index must be rebuilt and the document must be dumped
+    private void markChanged () {
+        dirty = true;
+        sectionIndex.invalidate();
+    }
+
+    // An action changed the content of a map or list; only that part of the index is updated (see SectionIndex.update())
+    // and the document must be dumped
+    private void markChanged (Object changedNode) {
+        dirty = true;
+        sectionIndex.update(changedNode);
+    }
+
+    public boolean isDirty () {
+        return dirty;
+    }
+
+    /******************************************************************************************
+     Restores the yaml map of this document and all its templates to the state in which it was
+     read from file. No files are read; the yaml map is a copy of the in-memory original.
+     ******************************************************************************************/
+    public Map<String, Object> restore () {
+        logger.debug("==> Method: YamlDocument.restore: {}", sourceInputFile);
+
+        if (pristineYamlMap != null) {
+            yamlMap = (Map<String, Object>) Utils.deepCopy(pristineYamlMap);
+            sectionIndex.invalidate();
+            dirty = false;
+        }
+
+        int index;
+        int size = yamlTemplateList.size();
+        for (index = 0; index < size; index++) {
+            yamlTemplateList.get(index).restore();
+        }
+
+        return yamlMap;
+    }
+
     /******************************************************************************************
      For each template file found in this yaml, a YamlTemplate object is created and added to the list.
      This means that each YamlDocument - which is associated with a yaml file - has its own list of YamlTemplate objects.
+     The templates form a tree; the templates of one document are resolved, read and validated in parallel
+     (using the shared, bounded pool; see getPool()), after which their own templates are handled in the same way. The order
+     of the templates in the list is the order in which they appear in the yaml file.
      ******************************************************************************************/
     public void readTemplates(String sourcePath,
                               String targetPath,
@@ -137,19 +207,7 @@ public class YamlDocument {
         logger.debug("includeExternalTemplates: {}", includeExternalTemplates);
         logger.debug("continueOnError: {}", continueOnError);
 
-        // The root represents the root path of the pipeline
-        Path pathMain = Paths.get(rootInputFile);
-        Path pathRoot = pathMain.getParent();
-        String root = "";
-        if (pathRoot != null) {
-            // Get the root of the rootInputFile
-            root = pathRoot.toString() + "/";
-        }
-        logger.debug("root: {}", root);
-
-        getTemplates(yamlMap,
-                root,
-                sourcePath,
+        TemplateContext context = new TemplateContext(sourcePath,
                 targetPath,
                 sourceBasePathExternal,
                 targetBasePathExternal,
@@ -158,33 +216,202 @@ public class YamlDocument {
                 repositoryList,
                 includeExternalTemplates,
                 continueOnError);
-        int index;
-        int size = yamlTemplateList.size();
-        YamlTemplate yamlTemplate;
-        for (index = 0; index < size; index++) {
-            yamlTemplate = yamlTemplateList.get(index);
-            yamlTemplate.readYaml(continueOnError);
+        getPool().invoke(new ReadTemplateTask(this, null, context));
+    }
 
-            // Templates can contain other templates, so recursively read them
-            yamlTemplate.readTemplates(sourcePath,
-                    targetPath,
-                    sourceBasePathExternal,
-                    targetBasePathExternal,
-                    sourceRepositoryName,
-                    targetRepositoryName,
-                    repositoryList,
-                    includeExternalTemplates,
-                    continueOnError);
+    /******************************************************************************************
+     Returns the pool that reads, dumps and validates the documents (and pushes the repositories
+     and copies the source files) in parallel. The pool is created on first use and is shared, so its threads - and the
+     ThreadLocal dumpers used by these threads - are reused by the next call. The worker threads
+     of a ForkJoinPool are daemon threads, so the pool does not prevent the JVM from exiting.
+     ******************************************************************************************/
+    public static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(MAX_PARALLELISM);
         }
+        return pool;
     }
 
     /******************************************************************************************
-     The manipulated yaml map is saved onto the local file system. The location is a target location,
-     other than the original location of the pipeline file.
+     The arguments of readTemplates(); they are the same for all templates in the tree.
      ******************************************************************************************/
-    public void dumpYaml () throws IOException {
+    private static class TemplateContext {
+        final String sourcePath;
+        final String targetPath;
+        final String sourceBasePathExternal;
+        final String targetBasePathExternal;
+        final String sourceRepositoryName;
+        final String targetRepositoryName;
+        final ArrayList<RepositoryResource> repositoryList;
+        final boolean includeExternalTemplates;
+        final boolean continueOnError;
+
+        TemplateContext(String sourcePath,
+                        String targetPath,
+                        String sourceBasePathExternal,
+                        String targetBasePathExternal,
+                        String sourceRepositoryName,
+                        String targetRepositoryName,
+                        ArrayList<RepositoryResource> repositoryList,
+                        boolean includeExternalTemplates,
+                        boolean continueOnError) {
+            this.sourcePath = sourcePath;
+            this.targetPath = targetPath;
+            this.sourceBasePathExternal = sourceBasePathExternal;
+            this.targetBasePathExternal = targetBasePathExternal;
+            this.sourceRepositoryName = sourceRepositoryName;
+            this.targetRepositoryName = targetRepositoryName;
+            this.repositoryList = repositoryList;
+            this.includeExternalTemplates = includeExternalTemplates;
+            this.continueOnError = continueOnError;
+        }
+    }
+
+    /******************************************************************************************
+     Task that handles one node in the template tree. If the node is a template that is not
+     created yet, the YamlTemplate object is created (which resolves and validates the file) and
+     the file is read. Then, a subtask is started for each template referred to in the file.
+     ******************************************************************************************/
+    private static class ReadTemplateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private YamlDocument yamlDocument;
+        private final String templateName;
+        private final String parentAlias;
+        private final TemplateContext context;
+
+        ReadTemplateTask(YamlDocument yamlDocument, String parentAlias, TemplateContext context) {
+            this.yamlDocument = yamlDocument;
+            this.templateName = null;
+            this.parentAlias = parentAlias;
+            this.context = context;
+        }
+
+        ReadTemplateTask(String templateName, String parentAlias, TemplateContext context) {
+            this.yamlDocument = null;
+            this.templateName = templateName;
+            this.parentAlias = parentAlias;
+            this.context = context;
+        }
+
+        @Override
+        protected void compute() {
+            if (yamlDocument == null) {
+                YamlTemplate yamlTemplate = new YamlTemplate(templateName,
+                        context.sourcePath,
+                        context.targetPath,
+                        context.sourceBasePathExternal,
+                        context.targetBasePathExternal,
+                        context.sourceRepositoryName,
+                        context.targetRepositoryName,
+                        parentAlias,
+                        context.repositoryList,
+                        context.includeExternalTemplates,
+                        context.continueOnError);
+                yamlTemplate.readYaml(context.continueOnError);
+                yamlDocument = yamlTemplate;
+            }
+
+            // Templates can contain other templates, so handle them in parallel
+            ArrayList<String> templateNames = new ArrayList<>();
+            getTemplates(yamlDocument.yamlMap, templateNames);
+            ArrayList<ReadTemplateTask> tasks = new ArrayList<>();
+            int size = templateNames.size();
+            for (int index = 0; index < size; index++) {
+                tasks.add(new ReadTemplateTask(templateNames.get(index), yamlDocument.repositoryAlias, context));
+            }
+            invokeAll(tasks);
+
+            // Keep the order of the templates as found in the yaml file
+            ArrayList<YamlTemplate> yamlTemplateList = new ArrayList<>();
+            for (int index = 0; index < size; index++) {
+                yamlTemplateList.add((YamlTemplate) tasks.get(index).yamlDocument);
+            }
+            yamlDocument.yamlTemplateList = yamlTemplateList;
+        }
+    }
+
+    /******************************************************************************************
+     The manipulated yaml maps of this document and its templates are saved onto the local file
+     system. The location is a target location, other than the original location of the pipeline file.
+     The documents are serialized in parallel (using the shared, bounded pool; see getPool()) into memory. After that,
+     the files are written in the order of the documents; each file is written atomically (a
+     temporary file is written and moved), so the file is complete as soon as it exists.
+     A document that was not changed is not dumped if the target file already has the same content
+     as the source file. A dumped document is only written if the content differs from the last
+     content written to the target file (see OutputManifest).
+     @param writtenFiles The names of the files that are actually written are added to this list.
+     ******************************************************************************************/
+    public void dumpYaml (ArrayList<String> writtenFiles) throws IOException {
+        dumpYaml(writtenFiles, null, null);
+    }
+
+    /******************************************************************************************
+     Same as dumpYaml(writtenFiles), but the documents with a target file in directory
+     'inMemoryPath' are not written. Instead, the content of the changed documents is added to
+     'inMemoryFiles' (target file name -> content); unchanged documents are not added, because
+     their content equals the source file.
+     ******************************************************************************************/
+    public void dumpYaml (ArrayList<String> writtenFiles,
+                          String inMemoryPath,
+                          Map<String, byte[]> inMemoryFiles) throws IOException {
         logger.debug("==> Method: YamlDocument.dumpYaml");
+        logger.debug("inMemoryPath: {}", inMemoryPath);
+
+        Path inMemoryDirectory = inMemoryPath == null ? null : Paths.get(inMemoryPath).toAbsolutePath().normalize();
+        ArrayList<YamlDocument> yamlDocuments = new ArrayList<>();
+        collectDocuments(yamlDocuments);
+        int size = yamlDocuments.size();
+        boolean[] inMemory = new boolean[size];
+        ArrayList<Callable<byte[]>> tasks = new ArrayList<>();
+        for (int index = 0; index < size; index++) {
+            YamlDocument yamlDocument = yamlDocuments.get(index);
+            inMemory[index] = inMemoryDirectory != null
+                    && yamlDocument.targetOutputFile != null
+                    && Paths.get(yamlDocument.targetOutputFile).toAbsolutePath().normalize().startsWith(inMemoryDirectory);
+            tasks.add(inMemory[index] ? yamlDocument::serializeInMemory : yamlDocument::serialize);
+        }
+
+        ArrayList<byte[]> contents = new ArrayList<>();
+        try {
+            List<Future<byte[]>> results = getPool().invokeAll(tasks);
+            for (int index = 0; index < size; index++) {
+                contents.add(results.get(index).get());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Dumping the yaml files is interrupted", e);
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Cannot dump the yaml files", e.getCause());
+        }
+
+        // Write the files in the order of the documents
+        for (int index = 0; index < size; index++) {
+            byte[] content = contents.get(index);
+            if (content != null) {
+                String fileName = yamlDocuments.get(index).targetOutputFile;
+                if (inMemory[index]) {
+                    inMemoryFiles.put(fileName, content);
+                }
+                else {
+                    Utils.writeFileAtomically(fileName, content);
+                    OutputManifest.record(fileName, content);
+                    writtenFiles.add(fileName);
+                }
+            }
+        }
+    }
 
+    public void dumpYaml () throws IOException {
+        dumpYaml(new ArrayList<>());
+    }
+
+    /******************************************************************************************
+     Serialize the yaml map of this document only.
+     @return The content of the target file, or null if the target file does not have to be written.
+     ******************************************************************************************/
+    private byte[] serialize () {
         // Dump the updated yaml to target directory (with the same name as the original file in the source directory)
         logger.debug("=================================================================");
         logger.debug("Dump the yamlMap of {} to {}", sourceInputFile, targetOutputFile);
@@ -197,143 +424,175 @@ public class YamlDocument {
                 logger.warn("This concerns a template with name: {}", templateName);
             logger.debug("");
 
-            return;
+            return null;
         }
         if (targetOutputFile == null) {
             // This may be a false-positive, so don't exit
             logger.warn("targetOutputFile is null; this may be a false-positive");
             logger.debug("");
 
-            return;
+            return null;
         }
 
         logger.debug("");
-        final DumperOptions options = new DumperOptions();
-        options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
-        options.setPrettyFlow(true);
-        final Yaml yaml = new Yaml(options);
-        FileWriter writer = new FileWriter(targetOutputFile);
-        yaml.dump(yamlMap, writer);
-        Utils.wait(1000);
+        if (!dirty && Utils.sameContent(sourceInputFile, targetOutputFile)) {
+            logger.debug("{} is not changed and the target file equals the source file; skip", sourceInputFile);
+            return null;
+        }
 
-        // Dump the templates
-        int index;
-        int size = yamlTemplateList.size();
-        YamlTemplate yamlTemplate;
-        for (index = 0; index < size; index++) {
-            yamlTemplate = yamlTemplateList.get(index);
-            yamlTemplate.dumpYaml();
+        byte[] content = dumper.get().dump(yamlMap).getBytes(Charset.defaultCharset());
+        if (OutputManifest.isUnchanged(targetOutputFile, content)) {
+            logger.debug("{} has the same content as the last time it was written; skip", targetOutputFile);
+            return null;
         }
+
+        return content;
+    }
+
+    /******************************************************************************************
+     Serialize the yaml map of this document only, if it is changed; the target file is not used.
+     @return The content of the target file, or null if the document is not changed.
+     ******************************************************************************************/
+    private byte[] serializeInMemory () {
+        logger.debug("Dump the yamlMap of {} to memory", sourceInputFile);
+
+        if (sourceInputFile == null || !dirty)
+            return null;
+
+        return dumper.get().dump(yamlMap).getBytes(Charset.defaultCharset());
     }
 
     /******************************************************************************************
      The manipulated yaml map and its underlying template files are validated.
+     All documents are validated in parallel (using the shared, bounded pool; see getPool()). For each document,
+     the schema is validated and the variable groups and environments are checked in one pass.
+     All errors are collected and logged as one report, in the order of the documents.
+     If 'validateInMemory' is true, the yaml maps are validated instead of the dumped files. This
+     is only correct if the files were not changed after they were dumped (e.g. by a hook).
      ******************************************************************************************/
     public void validateTargetOutputFilesAndTemplates (ArrayList<String> validVariableGroups,
                                                        ArrayList<String> validEnvironments,
                                                        String project,
+                                                       boolean validateInMemory,
                                                        boolean continueOnError) {
-        /******************************************************************************************
-                       1. Validate whether a variable group (or more) exist
-         ******************************************************************************************/
-        // Retrieve the list with variable groups and validate whether they are defined in the Azure DevOps project
+        logger.debug("==> Method: YamlDocument.validateTargetOutputFilesAndTemplates");
+
+        ArrayList<YamlDocument> yamlDocuments = new ArrayList<>();
+        collectDocuments(yamlDocuments);
+        ArrayList<Callable<ArrayList<String>>> tasks = new ArrayList<>();
+        int size = yamlDocuments.size();
+        for (int index = 0; index < size; index++) {
+            YamlDocument yamlDocument = yamlDocuments.get(index);
+            tasks.add(() -> yamlDocument.findValidationErrors(validVariableGroups, validEnvironments, project, validateInMemory));
+        }
+
+        ArrayList<String> errors = new ArrayList<>();
+        try {
+            List<Future<ArrayList<String>>> results = getPool().invokeAll(tasks);
+            for (int index = 0; index < size; index++) {
+                errors.addAll(results.get(index).get());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errors.add("Validation is interrupted");
+        }
+        catch (ExecutionException e) {
+            errors.add("Validation failed: " + e.getCause());
+        }
+
+        if (errors.isEmpty()) {
+            logger.debug("All {} files look valid", size);
+            return;
+        }
+
+        logger.error("Validation of the output files resulted in {} error(s):", errors.size());
+        int errorSize = errors.size();
+        for (int index = 0; index < errorSize; index++) {
+            logger.error(errors.get(index));
+        }
+        if (continueOnError) return; else System.exit(1);
+    }
+
+    /******************************************************************************************
+     Validate this document only; the schema, the variable groups and the environments are
+     validated. The index of the document is used to find the variable groups and environments.
+     @return The errors; the list is empty if the document is valid.
+     ******************************************************************************************/
+    private ArrayList<String> findValidationErrors (ArrayList<String> validVariableGroups,
+                                                    ArrayList<String> validEnvironments,
+                                                    String project,
+                                                    boolean validateInMemory) {
+        logger.debug("==> Method: YamlDocument.findValidationErrors");
+        logger.debug("targetOutputFile: {}", targetOutputFile);
+
+        ArrayList<String> errors = new ArrayList<>();
+
+        // 1. Validate whether the variable groups exist in the Azure DevOps project
         if (validVariableGroups != null && !validVariableGroups.isEmpty()) {
-            ActionReturnPropertyValue actionReturnVariableGroups = new ActionReturnPropertyValue(SECTION_VARIABLES, PROPERTY_VARIABLE_GROUP);
-            performAction(actionReturnVariableGroups, SECTION_VARIABLES, "");
-            validatePropertyList(actionReturnVariableGroups.getPropertyValues(),
-                    validVariableGroups,
-                    project,
-                    "Variable group",
-                    continueOnError);
-        }
-
-        /******************************************************************************************
-             2. Validate the output files to determine whether it contains valid pipeline code
-         ******************************************************************************************/
+            findUndefinedProperties(SECTION_VARIABLES, PROPERTY_VARIABLE_GROUP, validVariableGroups, project, "Variable group", errors);
+        }
+
+        // 2. Validate the output file to determine whether it contains valid pipeline code
         // Only validate if the targetOutputFile exists. There are cases in which no targetOutputFile
         // is created. This is in a false-positive situation where the plugin cannot determine
         // whether there is a valid file involved.
-        if (targetOutputFile != null && !targetOutputFile.isEmpty())
-            Utils.validatePipelineFile(targetOutputFile, continueOnError);
-
-        // Validate the template files
-        int index;
-        int size = yamlTemplateList.size();
-        YamlTemplate yamlTemplate;
-        for (index = 0; index < size; index++) {
-            yamlTemplate = yamlTemplateList.get(index);
-            yamlTemplate.validateTargetOutputFilesAndTemplates(validVariableGroups,
-                    validEnvironments,
-                    project,
-                    continueOnError);
+        if (targetOutputFile != null && !targetOutputFile.isEmpty()) {
+            ArrayList<String> schemaErrors;
+            if (validateInMemory)
+                schemaErrors = Utils.findPipelineYamlErrors(yamlMap, targetOutputFile);
+            else
+                schemaErrors = Utils.findPipelineFileErrors(targetOutputFile);
+            int size = schemaErrors.size();
+            for (int index = 0; index < size; index++) {
+                errors.add(targetOutputFile + ": " + schemaErrors.get(index));
+            }
         }
 
-        /******************************************************************************************
-                            3. Validate whether an Environment (or more) exists.
-         ******************************************************************************************/
-        // Retrieve the list with environments and validate whether the are defined in the Azure DevOps project
+        // 3. Validate whether the environments exist in the Azure DevOps project
         if (validEnvironments != null && !validEnvironments.isEmpty()) {
-            ActionReturnPropertyValue actionReturnEnvironments = new ActionReturnPropertyValue(SECTION_JOBS, PROPERTY_ENVIRONMENT);
-            performAction(actionReturnEnvironments, SECTION_JOBS, "");
-            validatePropertyList(actionReturnEnvironments.getPropertyValues(),
-                    validEnvironments,
-                    project,
-                    "Environment",
-                    continueOnError);
+            findUndefinedProperties(SECTION_JOBS, PROPERTY_ENVIRONMENT, validEnvironments, project, "Environment", errors);
         }
+
+        return errors;
     }
 
     /******************************************************************************************
-     If the 'propertyList' contains values that are not present in the validPropertyList, an
-     error is raised (if continueOnError is true).
+     Find the values of a property in the list of a section type (for example, the 'group' of
+     the 'variables' section) that are not present in the validPropertyList.
      ******************************************************************************************/
-    protected void validatePropertyList (ArrayList<String> propertyList,
-                                         ArrayList<String> validPropertyList,
-                                         String project,
-                                         String propertyNameInLog,
-                                         boolean continueOnError) {
-        // Validate whether the values in 'propertyList' exist in 'validPropertyList'.
-        int index;
-        int size = propertyList.size();
-        String propertyValue;
-        for (index = 0; index < size; index++) {
-            propertyValue = propertyList.get(index);
-            if (!validPropertyList.contains(propertyValue)) {
-                if (continueOnError) {
-                    logger.debug("{} \'{}\' is not defined in Azure DevOps project \'{}\'", propertyNameInLog, propertyValue, project);
-                    return;
-                }
-                else {
-                    logger.error("{} \'{}\' is not defined in Azure DevOps project \'{}\'", propertyNameInLog, propertyValue, project);
-                    System.exit(1);
+    private void findUndefinedProperties (String sectionType,
+                                          String property,
+                                          ArrayList<String> validPropertyList,
+                                          String project,
+                                          String propertyNameInLog,
+                                          ArrayList<String> errors) {
+        ArrayList<SectionIndex.IndexEntry> entries = getSectionIndex().lookup(sectionType);
+        int size = entries.size();
+        for (int index = 0; index < size; index++) {
+            SectionIndex.IndexEntry entry = entries.get(index);
+            if (!sectionType.equals(entry.key) || !(entry.getValue() instanceof ArrayList))
+                continue;
+
+            ArrayList<Object> list = (ArrayList<Object>) entry.getValue();
+            int listSize = list.size();
+            for (int i = 0; i < listSize; i++) {
+                if (list.get(i) instanceof Map) {
+                    Object propertyValue = ((Map<String, Object>) list.get(i)).get(property);
+                    if (propertyValue != null && !validPropertyList.contains(propertyValue.toString())) {
+                        errors.add((targetOutputFile == null || targetOutputFile.isEmpty() ? sourceInputFile : targetOutputFile) + ": " + propertyNameInLog + " \'" + propertyValue + "\' is not defined in Azure DevOps project \'" + project + "\'");
+                    }
                 }
             }
         }
     }
 
     /******************************************************************************************
-     Create a list of all templates.
+     Create a list of the names of all templates in a yaml map (in the order in which they appear).
      ******************************************************************************************/
-    private void getTemplates(Map<String, Object> inner,
-                              String root,
-                              String sourcePath,
-                              String targetPath,
-                              String sourceBasePathExternal,
-                              String targetBasePathExternal,
-                              String sourceRepositoryName,
-                              String targetRepositoryName,
-                              ArrayList<RepositoryResource> repositoryList,
-                              boolean includeExternalTemplates,
-                              boolean continueOnError) {
+    static void getTemplates(Map<String, Object> inner,
+                             ArrayList<String> templateNames) {
         logger.debug("==> Method: YamlDocument.getTemplates");
-        logger.debug("root: {}", root);
-        logger.debug("sourcePath: {}", sourcePath);
-        logger.debug("targetPath: {}", targetPath);
-        logger.debug("sourceBasePathExternal: {}", sourceBasePathExternal);
-        logger.debug("targetBasePathExternal: {}", targetBasePathExternal);
-        logger.debug("sourceRepositoryName: {}", sourceRepositoryName);
-        logger.debug("targetRepositoryName: {}", targetRepositoryName);
-        logger.debug("continueOnError: {}", continueOnError);
 
         // Inner could be null
         if (inner == null){
@@ -346,69 +605,27 @@ public class YamlDocument {
 
             // Add all template files to the list
             if ("template".equals(entry.getKey())) {
-                yamlTemplateList.add(new YamlTemplate((String) entry.getValue(),
-                        sourcePath,
-                        targetPath,
-                        sourceBasePathExternal,
-                        targetBasePathExternal,
-                        sourceRepositoryName,
-                        targetRepositoryName,
-                        repositoryAlias,
-                        repositoryList,
-                        includeExternalTemplates,
-                        continueOnError));
-                logger.debug("Found template {}; add it to the yamlTemplateList", entry.getValue());
+                if (entry.getValue() instanceof String) {
+                    templateNames.add((String) entry.getValue());
+                    logger.debug("Found template {}; add it to the yamlTemplateList", entry.getValue());
+                }
+                else {
+                    logger.warn("Template {} is not a file name; this may be a false-positive", entry.getValue());
+                }
             }
 
             // Go a level deeper
             if (entry.getValue() instanceof Map) {
-                getTemplates((Map<String, Object>) entry.getValue(),
-                        root,
-                        sourcePath,
-                        targetPath,
-                        sourceBasePathExternal,
-                        targetBasePathExternal,
-                        sourceRepositoryName,
-                        targetRepositoryName,
-                        repositoryList,
-                        includeExternalTemplates,
-                        continueOnError);
+                getTemplates((Map<String, Object>) entry.getValue(), templateNames);
             }
             if (entry.getValue() instanceof ArrayList) {
-                getTemplates((ArrayList<Object>) entry.getValue(),
-                        root,
-                        sourcePath,
-                        targetPath,
-                        sourceBasePathExternal,
-                        targetBasePathExternal,
-                        sourceRepositoryName,
-                        targetRepositoryName,
-                        repositoryList,
-                        includeExternalTemplates,
-                        continueOnError);
+                getTemplates((ArrayList<Object>) entry.getValue(), templateNames);
             }
         }
     }
-    private void getTemplates(ArrayList<Object> inner,
-                              String root,
-                              String sourcePath,
-                              String targetPath,
-                              String sourceBasePathExternal,
-                              String targetBasePathExternal,
-                              String sourceRepositoryName,
-                              String targetRepositoryName,
-                              ArrayList<RepositoryResource> repositoryList,
-                              boolean includeExternalTemplates,
-                              boolean continueOnError) {
+    static void getTemplates(ArrayList<Object> inner,
+                             ArrayList<String> templateNames) {
         logger.debug("==> Method: YamlDocument.getTemplates");
-        logger.debug("root: {}", root);
-        logger.debug("sourcePath: {}", sourcePath);
-        logger.debug("targetPath: {}", targetPath);
-        logger.debug("sourceBasePathExternal: {}", sourceBasePathExternal);
-        logger.debug("targetBasePathExternal: {}", targetBasePathExternal);
-        logger.debug("sourceRepositoryName: {}", sourceRepositoryName);
-        logger.debug("targetRepositoryName: {}", targetRepositoryName);
-        logger.debug("continueOnError: {}", continueOnError);
 
         // Inner could be null
         if (inner == null){
@@ -423,30 +640,10 @@ public class YamlDocument {
             }
             // If inner sections are found, go a level deeper
             if (entry instanceof Map) {
-                getTemplates((Map<String, Object>)entry,
-                        root,
-                        sourcePath,
-                        targetPath,
-                        sourceBasePathExternal,
-                        targetBasePathExternal,
-                        sourceRepositoryName,
-                        targetRepositoryName,
-                        repositoryList,
-                        includeExternalTemplates,
-                        continueOnError);
+                getTemplates((Map<String, Object>)entry, templateNames);
             }
             if (entry instanceof ArrayList) {
-                getTemplates((ArrayList<Object>)entry,
-                        root,
-                        sourcePath,
-                        targetPath,
-                        sourceBasePathExternal,
-                        targetBasePathExternal,
-                        sourceRepositoryName,
-                        targetRepositoryName,
-                        repositoryList,
-                        includeExternalTemplates,
-                        continueOnError);
+                getTemplates((ArrayList<Object>)entry, templateNames);
             }
         });
     }
@@ -459,6 +656,7 @@ public class YamlDocument {
     public void makeResourcesLocal () {
         logger.debug("==> Method: YamlDocumentEntryPoint.makeResourcesLocal");
         makeResourcesLocal (yamlMap);
+        markChanged();
     }
     private void makeResourcesLocal (Map<String, Object> map) {
         if (map == null) {
@@ -535,12 +733,12 @@ public class YamlDocument {
     }
 
     /********************************************************************************
-     Parses the yaml document until a specific section is found. A section is either
+     Searches the yaml document for a specific section. A section is either
      a type - identified using 'sectionType' - such as 'variables', 'parameters',
      'stages', or it is a type in combination with a 'sectionIdentifier', for example:
          'stage: myStage'
-     This method is performing recursion by calling itself to search for sections
-     deeper in the yaml structure.
+     The section is looked up in the SectionIndex of the document, instead of
+     parsing the complete yaml structure.
 
      If the section is found, it tries to execute an action object containing
      specific variables.
@@ -558,181 +756,248 @@ public class YamlDocument {
 
         return arTemplates;
     }
-    private ActionResult performActionOnThis (Action action,
-                                              String sectionType,
-                                              String sectionIdentifier) {
-        logger.debug("==> Method: YamlDocument.performActionOnThis (first level)");
+    ActionResult performActionOnThis (Action action,
+                                      String sectionType,
+                                      String sectionIdentifier) {
+        logger.debug("==> Method: YamlDocument.performActionOnThis");
+        logger.debug("action: {}", action.getClass().getName());
+        logger.debug("sectionType: {}", sectionType);
+        logger.debug("sectionIdentifier: {}", sectionIdentifier);
 
         ActionResult actionResult = new ActionResult();
         actionResult.l1 = yamlMap;
         actionResult.l2 = null;
         actionResult.l3 = null;
-        return performActionOnThis (actionResult, action, sectionType, sectionIdentifier);
-    }
-
-    private ActionResult performActionOnThis (ActionResult actionResult,
-                                              Action action,
-                                              String sectionType,
-                                              String sectionIdentifier){
-        logger.debug("==> Method: YamlDocument.performActionOnThis (second level)");
-        logger.debug("action: {}", action.getClass().getName());
-        logger.debug("sectionType: {}", sectionType);
-        logger.debug("sectionIdentifier: {}", sectionIdentifier);
 
-        if (actionResult == null) {
-            logger.warn("actionResult is null");
-            return null;
-        }
-
-        if (actionResult.l1 == null) {
-            logger.debug("actionResult.l1 is null; return");
-        }
-
-        if (sectionType == null || sectionType.isEmpty()) {
-            logger.warn("sectionType is not provided");
+        if (yamlMap == null) {
+            logger.debug("yamlMap is null; return");
+            return actionResult;
         }
 
         // Check whether it concerns a custom action
         if (action.isCustomAction()) {
             action.execute(actionResult);
             actionResult.actionExecuted = true;
+            markChanged();
             return actionResult;
         }
 
-        // If not a custom action, continue ...
-        // Find the section; handle the Map
-        Object l1 = actionResult.l1;
-        Map<String, Object> map = null;
-        boolean found = false;
+        if (sectionType == null || sectionType.isEmpty()) {
+            logger.warn("sectionType is not provided");
+            return actionResult;
+        }
 
-        // --------------------------------- Handle the map ---------------------------------
-        if (l1 instanceof Map) {
-            logger.debug("l1 is instance of map...");
-            map = (Map<String, Object>) l1;
-            boolean keyError;
-            String key = "";
-            String stringValue;
-            for (Map.Entry<String, Object> entry : map.entrySet()) {
-                keyError = false;
-                try {
-                    key = entry.getKey();
-                }
-                catch (Exception e) {
-                    // In certain cases the key is not of the expected type. This can happen Because of a snakeyaml issue
-                    // (the construction on..failure is translated to true..failure, making the key a boolean)
-                    keyError = true;
-                }
-                if (keyError || entry.getValue() == null) {
-                    logger.debug("keyError is set or entry.getValue() is not for key: {}", key);
-                }
-                else {
-                    stringValue = entry.getValue().toString();
-                    logger.debug("Key: {}", key);
-                    logger.debug("Value: {}", stringValue);
-
-                    if (sectionType != null) {
-                        if (sectionType.equals(key)) {
-                            logger.debug("Found a sectionType with the key: {}", key);
-
-                            if (!action.needsSectionIdentifier()) {
-                                actionResult = doAction(actionResult, action, entry);
-                            }
-
-                            // Check whether value equals to sectionIdentifier
-                            if (sectionIdentifier != null && sectionIdentifier.equals(stringValue)) {
-                                logger.debug("And the stringValue also equals the value: {}", stringValue);
-
-                                if (action.needsSectionIdentifier()) {
-                                    //actionResult.l3 = actionResult.l2;
-                                    //actionResult.l2 = actionResult.l1;
-                                    actionResult = doAction(actionResult, action, entry);
-                                }
-                            }
-                        }
-                        if (sectionType.equals(stringValue)) {
-                            logger.debug("Found a sectionType with the value: {}", stringValue);
-
-                            if (!action.needsSectionIdentifier()) {
-                                actionResult = doAction(actionResult, action, entry);
-                            }
-
-                            // Check whether key equals to sectionIdentifier
-                            if (sectionIdentifier != null && sectionIdentifier.equals(key)) {
-                                logger.debug("And the stringValue also equals the key: {}", key);
-
-                                if (action.needsSectionIdentifier()) {
-                                    //actionResult.l3 = actionResult.l2;
-                                    //actionResult.l2 = actionResult.l1;
-                                    actionResult = doAction(actionResult, action, entry);
-                                }
-                            }
-                        }
-                    }
+        // If not a custom action, continue ...
+        // Lookup the entries of which the key or the value equals the sectionType
+        ArrayList<SectionIndex.IndexEntry> entries = getSectionIndex().lookup(sectionType);
+        int size = entries.size();
+        SectionIndex.IndexEntry entry;
+        Object value;
+        String stringValue;
+        for (int i = 0; i < size; i++) {
+            entry = entries.get(i);
+            value = entry.getValue();
+            if (value == null)
+                continue;
+
+            stringValue = value.toString();
+            logger.debug("Key: {}", entry.key);
+            logger.debug("Value: {}", stringValue);
+
+            if (sectionType.equals(entry.key)) {
+                logger.debug("Found a sectionType with the key: {}", entry.key);
+
+                // Execute the action if no identifier is needed, or if the value equals to sectionIdentifier
+                if (!action.needsSectionIdentifier() || (sectionIdentifier != null && sectionIdentifier.equals(stringValue))) {
+                    doAction(actionResult, action, entry, value);
                 }
+            }
+            if (!actionResult.actionExecuted && sectionType.equals(stringValue)) {
+                logger.debug("Found a sectionType with the value: {}", stringValue);
 
-                if (actionResult.actionExecuted)
-                    return actionResult;
-
-                // Go a level deeper
-                actionResult = goALevelDeeper (actionResult, entry, action, sectionType, sectionIdentifier);
+                // Execute the action if no identifier is needed, or if the key equals to sectionIdentifier
+                if (!action.needsSectionIdentifier() || (sectionIdentifier != null && sectionIdentifier.equals(entry.key))) {
+                    doAction(actionResult, action, entry, value);
+                }
             }
-        }
 
-        // --------------------------------- Handle the arraylist ---------------------------------
-        if (l1 instanceof ArrayList) {
-            logger.debug("l1 is instance of arraylist...");
-            ArrayList<Object> list = (ArrayList<Object>) l1;
-            if (list.isEmpty())
+            // The action is executed and the document may have changed; an action changes the list that
+            // encloses the section (or the section itself if there is no such list)
+            if (actionResult.actionExecuted) {
+                markChanged(entry.parentList != null ? entry.parentList : entry.section);
                 return actionResult;
-
-            int size = list.size();
-            logger.debug("list.size(): {}", list.size());
-            for (int i = 0; i < size; i++) {
-                actionResult.l3 = actionResult.l2;
-                actionResult.l2 = list;
-                actionResult.l1 = list.get(i);
-                logger.debug("list.get(i): {}", list.get(i));
-                actionResult = performActionOnThis (actionResult,
-                        action,
-                        sectionType,
-                        sectionIdentifier);
-
-                // Break out of the loop
-                // The action is executed and the list may contain less (after a delete action) or more (after an insert) entries
-                if (actionResult.actionExecuted)
-                    break;
             }
         }
 
         return actionResult;
-    };
-
-    private ActionResult doAction (ActionResult actionResult,
-                                   Action action,
-                                   Map.Entry<String, Object> entry) {
-        actionResult.l3 = actionResult.l2;
-        actionResult.l2 = actionResult.l1;
-        actionResult.l1 = entry.getValue();
+    }
+
+    private void doAction (ActionResult actionResult,
+                           Action action,
+                           SectionIndex.IndexEntry entry,
+                           Object value) {
+        actionResult.l3 = entry.parentList;
+        actionResult.l2 = entry.section;
+        actionResult.l1 = value;
         action.execute(actionResult);
+    }
+
+    /******************************************************************************************
+     Execute an action on the sections that match a selector. The selector is matched against
+     this document and its templates.
+     The section types of the selector are tried in order (see SectionSelector.getSectionTypes()).
+     For one section type, the action is executed in each document on the first matching section
+     for which it succeeds. As soon as it succeeded in any document, the remaining section types
+     are not tried; for example, if the selector is 'script|bash[displayName=Deploy]' and a
+     'script' is changed in a template, no 'bash' step is changed in any of the documents.
+     An action may only change the list that encloses the matched section (or the section
+     itself, if there is no such list); only that part of the SectionIndex is updated.
+     @param selector The compiled selector that identifies the sections.
+     @param actionFactory Creates the action for the section type that matched; for example,
+                          if the selector is 'task|script[displayName=Deploy]', the factory
+                          is called with either 'task' or 'script'.
+     ******************************************************************************************/
+    public ActionResult performAction (SectionSelector selector,
+                                       Function<String, Action> actionFactory) {
+        logger.debug("==> Method: YamlDocument.performAction");
+        logger.debug("selector: {}", selector.getExpression());
+
+        ArrayList<YamlDocument> yamlDocuments = new ArrayList<>();
+        collectDocuments(yamlDocuments);
+        return performAction(yamlDocuments, selector, actionFactory);
+    }
+
+    // See performAction(selector, actionFactory); the documents are handled in the given order
+    static ActionResult performAction (ArrayList<YamlDocument> yamlDocuments,
+                                       SectionSelector selector,
+                                       Function<String, Action> actionFactory) {
+        // Match the selector once per document; the matches of all section types are found in one pass
+        ArrayList<Map<String, ArrayList<SectionSelector.SectionMatch>>> matchesPerDocument = match(yamlDocuments, selector);
+
+        ActionResult actionResult = new ActionResult();
+        ArrayList<String> sectionTypes = selector.getSectionTypes();
+        int typeSize = sectionTypes.size();
+        int documentSize = yamlDocuments.size();
+        ActionResult ar;
+        ArrayList<SectionSelector.SectionMatch> matches;
+        for (int i = 0; i < typeSize; i++) {
+            for (int j = 0; j < documentSize; j++) {
+                matches = matchesPerDocument.get(j).get(sectionTypes.get(i));
+                if (matches == null)
+                    continue;
+                ar = yamlDocuments.get(j).performActionOnMatches(matches, actionFactory);
+                if (!actionResult.actionExecuted && ar.actionExecuted)
+                    actionResult = ar;
+            }
+
+            // The first section type that is found in any document wins
+            if (actionResult.actionExecuted)
+                return actionResult;
+        }
+
         return actionResult;
     }
 
-    private ActionResult goALevelDeeper (ActionResult actionResult,
-                                         Map.Entry<String, Object> entry,
-                                         Action action,
-                                         String sectionType,
-                                         String sectionIdentifier) {
-        logger.debug("==> Method: YamlDocument.goALevelDeeper");
+    /******************************************************************************************
+     Match a selector against each document (not its templates). The matches of a document are
+     grouped by section type, in document order; a section type without matches is absent.
+     ******************************************************************************************/
+    static ArrayList<Map<String, ArrayList<SectionSelector.SectionMatch>>> match (ArrayList<YamlDocument> yamlDocuments,
+                                                                                 SectionSelector selector) {
+        ArrayList<Map<String, ArrayList<SectionSelector.SectionMatch>>> matchesPerDocument = new ArrayList<>();
+        int size = yamlDocuments.size();
+        for (int index = 0; index < size; index++) {
+            matchesPerDocument.add(yamlDocuments.get(index).matchBySectionType(selector));
+        }
+
+        return matchesPerDocument;
+    }
+
+    /******************************************************************************************
+     Return the first section type of the selector (see SectionSelector.getSectionTypes()) that
+     has a match in any of the documents; null if nothing matches.
+     @param matchesPerDocument The result of match().
+     ******************************************************************************************/
+    static String firstSectionType (SectionSelector selector,
+                                    ArrayList<Map<String, ArrayList<SectionSelector.SectionMatch>>> matchesPerDocument) {
+        ArrayList<String> sectionTypes = selector.getSectionTypes();
+        int typeSize = sectionTypes.size();
+        int documentSize = matchesPerDocument.size();
+        for (int i = 0; i < typeSize; i++) {
+            for (int j = 0; j < documentSize; j++) {
+                if (matchesPerDocument.get(j).containsKey(sectionTypes.get(i)))
+                    return sectionTypes.get(i);
+            }
+        }
+
+        return null;
+    }
+
+    /******************************************************************************************
+     Execute an action on the first section in this document (not its templates) that matches
+     the selector and is of type 'sectionType', and for which the action succeeds.
+     ******************************************************************************************/
+    ActionResult performActionOnThis (SectionSelector selector,
+                                      Function<String, Action> actionFactory,
+                                      String sectionType) {
+        logger.debug("==> Method: YamlDocument.performActionOnThis");
+        logger.debug("sectionType: {}", sectionType);
+
+        ArrayList<SectionSelector.SectionMatch> matches = matchBySectionType(selector).get(sectionType);
+        if (matches == null)
+            return new ActionResult();
 
-        actionResult.l1 = entry.getValue();
-        actionResult = performActionOnThis (actionResult,
-                action,
-                sectionType,
-                sectionIdentifier);
+        return performActionOnMatches(matches, actionFactory);
+    }
+
+    // Match the selector against this document; the matches are grouped by section type, in document order
+    private Map<String, ArrayList<SectionSelector.SectionMatch>> matchBySectionType (SectionSelector selector) {
+        ArrayList<SectionSelector.SectionMatch> matches = selector.match(yamlMap, getSectionIndex());
+        LinkedHashMap<String, ArrayList<SectionSelector.SectionMatch>> matchesBySectionType = new LinkedHashMap<>();
+        int size = matches.size();
+        for (int i = 0; i < size; i++) {
+            SectionSelector.SectionMatch match = matches.get(i);
+            matchesBySectionType.computeIfAbsent(match.sectionType, k -> new ArrayList<>()).add(match);
+        }
+
+        return matchesBySectionType;
+    }
+
+    // Execute the action on the first of the matches (all of this document) for which it succeeds
+    private ActionResult performActionOnMatches (ArrayList<SectionSelector.SectionMatch> matches,
+                                                 Function<String, Action> actionFactory) {
+        ActionResult actionResult = new ActionResult();
+        int size = matches.size();
+        SectionSelector.SectionMatch match;
+        for (int i = 0; i < size; i++) {
+            match = matches.get(i);
+            actionResult.l3 = match.parentList;
+            actionResult.l2 = match.section;
+            actionResult.l1 = match.getValue();
+            actionFactory.apply(match.sectionType).execute(actionResult);
+
+            // The action is executed and the document may have changed; an action changes the list that
+            // encloses the section (or the section itself if there is no such list)
+            if (actionResult.actionExecuted) {
+                markChanged(match.parentList != null ? match.parentList : match.section);
+                return actionResult;
+            }
+        }
 
         return actionResult;
     }
 
+    /******************************************************************************************
+     Return the SectionIndex of this document; if the document has changed since the index was
+     built, the index is rebuilt first.
+     ******************************************************************************************/
+    protected SectionIndex getSectionIndex () {
+        if (!sectionIndex.isValid())
+            sectionIndex.build(yamlMap);
+
+        return sectionIndex;
+    }
+
     public ActionResult performActionOnTemplates (Action action,
                                                   String sectionType,
                                                   String sectionIdentifier) {
@@ -760,16 +1025,27 @@ public class YamlDocument {
         logger.debug("newValue: {}", newValue);
         logger.debug("continueSearching: {}", replaceAll);
 
-        Yaml yaml = new Yaml();
-        String s = yaml.dump(yamlMap);
-        if (s.contains(literalToReplace))
-            logger.info("Override literal \'{}\' with \'{}\' in file \'{}\'", literalToReplace, newValue, targetOutputFile);
+        ArrayList<String> newValues = new ArrayList<>();
+        newValues.add(newValue);
+        overrideLiterals(new LiteralMatcher(Collections.singletonList(literalToReplace)), newValues, replaceAll, new LinkedHashMap<>());
+    }
+
+    /******************************************************************************************
+     Replace multiple literals in this document and its templates in one pass.
+     @param literalMatcher Matcher that contains the literals to replace.
+     @param newValues The new value of each literal in the matcher.
+     @param replaceAll If false, only the first occurrence of each literal in each file is replaced.
+     @param replacements The number of replacements is added to this map, per target file.
+     ******************************************************************************************/
+    public void overrideLiterals (LiteralMatcher literalMatcher,
+                                  ArrayList<String> newValues,
+                                  boolean replaceAll,
+                                  Map<String, Integer> replacements) {
+        logger.debug("==> Method: YamlDocument.overrideLiterals");
 
-        if (replaceAll)
-            s = s.replace(literalToReplace, newValue);
-        else
-            s = s.replaceFirst(Pattern.quote(literalToReplace), newValue);
-        yamlMap = (Map) yaml.load(s);
+        int count = overrideLiteralsOnThis(literalMatcher, newValues, replaceAll);
+        if (count > 0)
+            replacements.merge(targetOutputFile, count, Integer::sum);
 
         // Execute the command in the yamlTemplate files
         int index;
@@ -777,7 +1053,121 @@ public class YamlDocument {
         YamlTemplate yamlTemplate;
         for (index = 0; index < size; index++) {
             yamlTemplate = yamlTemplateList.get(index);
-            yamlTemplate.overrideLiteral(literalToReplace, newValue, replaceAll);
+            yamlTemplate.overrideLiterals(literalMatcher, newValues, replaceAll, replacements);
+        }
+    }
+
+    /******************************************************************************************
+     Replace the literals in this document only. The keys and scalar values in the yaml map are
+     replaced in place, in the order of the document, so the yaml does not have to be dumped and
+     parsed again.
+     @return The number of replacements.
+     ******************************************************************************************/
+    int overrideLiteralsOnThis (LiteralMatcher literalMatcher, ArrayList<String> newValues, boolean replaceAll) {
+        int literalSize = literalMatcher.size();
+        int[] counts = new int[literalSize];
+        int[] remaining = null;
+        if (!replaceAll) {
+            remaining = new int[literalSize];
+            Arrays.fill(remaining, 1);
+        }
+
+        Object replaced = replaceLiterals(yamlMap, literalMatcher, newValues, remaining, counts);
+        if (replaced instanceof Map)
+            yamlMap = (Map<String, Object>) replaced;
+
+        int total = 0;
+        for (int index = 0; index < literalSize; index++) {
+            if (counts[index] > 0) {
+                logger.info("Override literal \'{}\' with \'{}\' in file \'{}\' ({} times)", literalMatcher.getLiteral(index), newValues.get(index), targetOutputFile, counts[index]);
+                total += counts[index];
+            }
+        }
+        if (total > 0)
+            markChanged();
+
+        return total;
+    }
+
+    /*
+        Replace the literals in a node and return the node; a map is replaced by a new map if one of its keys changes.
+        A number or boolean is written as a plain scalar, so if it is replaced, the new value gets the type that it
+        would get if the yaml file was read again; for example, 'timeout: 5' stays a number if 5 is replaced by 10.
+        If a replaced key becomes equal to another key in the same map, the last one in the map wins (as when the
+        yaml file is read again); the value of the first one is lost, so a warning is logged.
+     */
+    private static Object replaceLiterals (Object node,
+                                           LiteralMatcher literalMatcher,
+                                           ArrayList<String> newValues,
+                                           int[] remaining,
+                                           int[] counts) {
+        if (node instanceof String)
+            return literalMatcher.replace((String) node, newValues, remaining, counts);
+
+        if (node instanceof Number || node instanceof Boolean) {
+            String s = node.toString();
+            String replaced = literalMatcher.replace(s, newValues, remaining, counts);
+            return replaced == s ? node : resolveScalar(replaced);
+        }
+
+        if (node instanceof Map) {
+            Map<Object, Object> map = (Map<Object, Object>) node;
+            LinkedHashMap<Object, Object> newMap = null;
+            for (Map.Entry<Object, Object> entry : map.entrySet()) {
+                Object key = replaceLiterals(entry.getKey(), literalMatcher, newValues, remaining, counts);
+                Object value = replaceLiterals(entry.getValue(), literalMatcher, newValues, remaining, counts);
+                if (newMap == null && key != entry.getKey()) {
+                    // A key changed; copy the preceding entries to keep the order
+                    newMap = new LinkedHashMap<>();
+                    for (Map.Entry<Object, Object> preceding : map.entrySet()) {
+                        if (preceding == entry)
+                            break;
+                        newMap.put(preceding.getKey(), preceding.getValue());
+                    }
+                }
+                if (newMap != null) {
+                    if (newMap.containsKey(key))
+                        logger.warn("After replacing the literals, key \'{}\' occurs more than once; the last value is used", key);
+                    newMap.put(key, value);
+                }
+                else if (value != entry.getValue())
+                    entry.setValue(value);
+            }
+            return newMap == null ? map : newMap;
+        }
+
+        if (node instanceof ArrayList) {
+            ArrayList<Object> list = (ArrayList<Object>) node;
+            int size = list.size();
+            for (int index = 0; index < size; index++) {
+                Object element = list.get(index);
+                Object replaced = replaceLiterals(element, literalMatcher, newValues, remaining, counts);
+                if (replaced != element)
+                    list.set(index, replaced);
+            }
+        }
+
+        return node;
+    }
+
+    // Returns the value of a plain scalar with its implicit yaml type (int, float, bool or null); other values stay a String
+    static Object resolveScalar (String value) {
+        Tag tag = resolver.resolve(NodeId.scalar, value, true);
+        if (Tag.INT.equals(tag) || Tag.FLOAT.equals(tag) || Tag.BOOL.equals(tag) || Tag.NULL.equals(tag))
+            return dumper.get().load(value);
+
+        return value;
+    }
+
+    /******************************************************************************************
+     Add this document and - recursively - all its templates to a list.
+     ******************************************************************************************/
+    public void collectDocuments (ArrayList<YamlDocument> yamlDocuments) {
+        yamlDocuments.add(this);
+        int index;
+        int size = yamlTemplateList.size();
+        for (index = 0; index < size; index++) {
+            yamlTemplateList.get(index).collectDocuments(yamlDocuments);
         }
     }
 }
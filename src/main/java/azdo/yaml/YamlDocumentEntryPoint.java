@@ -6,9 +6,20 @@ package azdo.yaml;
 import azdo.action.Action;
 import azdo.utils.*;
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 
 /******************************************************************************************
  A YamlDocumentEntryPoint is the entry point of the main pipeline YAML file.
@@ -45,6 +56,13 @@ public class YamlDocumentEntryPoint {
     // List of repositories, defined in the resources section in the main pipeline file.
     ArrayList<RepositoryResource> repositoryList = null;
 
+    // If actions are deferred, they are recorded in the actionPlan and applied just before the yaml files are dumped.
+    // If actionPlan is null, actions are executed immediately.
+    private ActionPlan actionPlan = null;
+
+    // The yaml files that were written by the last dumpYaml(); unchanged files are not written.
+    private ArrayList<String> writtenFiles = new ArrayList<>();
+
     // Constructor
     public YamlDocumentEntryPoint(String sourcePath,
                                   String targetPath,
@@ -83,46 +101,63 @@ public class YamlDocumentEntryPoint {
                 properties.getSourceProject());
 
         // Run trough all repositories and determine whether they need to be cloned and pushed to the Azure DevOps test project.
+        ArrayList<RepositoryResource> clonedRepositoryList = new ArrayList<>();
         repositoryList.forEach(repository -> {
             String source = repository.localBase + "/" + repository.name + RepositoryResource.LOCAL_SOURCE_POSTFIX;
-            if (Utils.pathIsEmptyOrNotExisting(source)) {
+            if (Utils.pathIsEmptyOrNotExisting(source))
+                clonedRepositoryList.add(repository);
+        });
+        if (clonedRepositoryList.isEmpty())
+            return;
 
-                // Clone the repository containing external templates from the remote (source) repository to
-                // the local file system, and remove the .git directory. The .git directory must be removed to
-                // 'unmount' from the original repository; it is later pushed to the Azure DevOps test repository.
-                // The directory must be copied to prevent it is overwritten by the createRemoteRepositories command.
-                cloneAndRenameExternalRepositories(repository,
+        // Clone the repositories containing external templates from the remote (source) repository and
+        // write their files to the local file system, without .git directory. The files must be 'unmounted'
+        // from the original repository; they are later pushed to the Azure DevOps test repository.
+        // The files are written to a separate source directory to prevent they are overwritten by the
+        // createRemoteRepositories command.
+        if (properties.isExternalTemplatesSparse()) {
+            cloneExternalRepositoriesSparse(yamlMap,
+                    clonedRepositoryList,
+                    properties.getAzDoUser(),
+                    properties.getAzdoPat(),
+                    properties.getTargetOrganization(),
+                    properties.isExternalTemplatesShallow());
+        }
+        else {
+            clonedRepositoryList.forEach(repository ->
+                cloneAndExportExternalRepository(repository,
                         properties.getAzDoUser(),
                         properties.getAzdoPat(),
                         properties.getTargetOrganization(),
-                        true);
+                        properties.isExternalTemplatesShallow()));
+        }
 
-                // Create remote repository in the Azure DevOps test project.
-                // This repository is a copy from the original external repository.
-                // To have all external repositories in one Azure DevOps test project means that they can also be manipulated.
-                createRemoteRepositories(repository,
-                        properties.getAzDoUser(),
-                        properties.getAzdoPat(),
-                        properties.getTargetOrganization(),
-                        properties.getTargetProject(),
-                        properties.getAzdoBaseUrl(),
-                        properties.getAzdoEndpoint(),
-                        properties.getGitApi(),
-                        properties.getGitApiVersion(),
-                        properties.getProjectApi(),
-                        properties.getProjectApiVersion(),
-                        properties.getGitApiRepositories());
-
-                // Copy the files of the source (local copy of external repository files) to the local target.
-                copyAllSourceFiles(repository, properties.getTargetExludeList());
-
-                // Checkout/push the local repository containing external templates to the Azure DevOps test project.
-                commitAndPushAllCode(repository,
-                        properties.getAzDoUser(),
-                        properties.getAzdoPat(),
-                        properties.getCommitPatternList(),
-                        properties.isContinueOnError());
-            }
+        clonedRepositoryList.forEach(repository -> {
+            // Create remote repository in the Azure DevOps test project.
+            // This repository is a copy from the original external repository.
+            // To have all external repositories in one Azure DevOps test project means that they can also be manipulated.
+            createRemoteRepositories(repository,
+                    properties.getAzDoUser(),
+                    properties.getAzdoPat(),
+                    properties.getTargetOrganization(),
+                    properties.getTargetProject(),
+                    properties.getAzdoBaseUrl(),
+                    properties.getAzdoEndpoint(),
+                    properties.getGitApi(),
+                    properties.getGitApiVersion(),
+                    properties.getProjectApi(),
+                    properties.getProjectApiVersion(),
+                    properties.getGitApiRepositories());
+
+            // Copy the files of the source (local copy of external repository files) to the local target.
+            copyAllSourceFiles(repository, properties.getTargetExludeList(), null);
+
+            // Checkout/push the local repository containing external templates to the Azure DevOps test project.
+            commitAndPushAllCode(repository,
+                    properties.getAzDoUser(),
+                    properties.getAzdoPat(),
+                    properties.getCommitPatternList(),
+                    properties.isContinueOnError());
         });
     }
 
@@ -148,6 +183,7 @@ public class YamlDocumentEntryPoint {
                 repositoryList,
                 includeExternalTemplates,
                 continueOnError);
+        logger.debug("YAML file cache: {} hits, {} misses, {} evictions", YamlFileCache.getHits(), YamlFileCache.getMisses(), YamlFileCache.getEvictions());
     }
 
     @SuppressWarnings("java:S1192")
@@ -180,6 +216,17 @@ public class YamlDocumentEntryPoint {
         return yamlMap;
     }
 
+    /******************************************************************************************
+     Restores the main YAML map and all template maps to their original state, as read from the
+     source files. This is used for a clean start of the next test.
+     @return The restored YAML map of the main pipeline file.
+     ******************************************************************************************/
+    public Map<String, Object> restore () {
+        logger.debug("==> Method: YamlDocumentEntryPoint.restore");
+
+        return mainYamlDocument.restore();
+    }
+
     /******************************************************************************************
      Create remote - external - repositories in the Azure DevOps test project.
      @param repository Repository characteristics of the repository created in the
@@ -238,9 +285,12 @@ public class YamlDocumentEntryPoint {
         // Checkout main branch
         // Note, that in the Azure Devops test project, external repositories only contain a "master" branch, although
         // the pipeline may point to another branch (using 'ref').
-        Git git = GitUtils.createGit (path);
-        boolean isRemote = GitUtils.containsBranch(git, GitUtils.BRANCH_MASTER);
-        GitUtils.checkout(git, path, GitUtils.BRANCH_MASTER, !isRemote);
+        try (GitSession gitSession = new GitSession(path)) {
+            Git git = gitSession.getGit();
+            boolean isRemote = GitUtils.containsBranch(git, GitUtils.BRANCH_MASTER);
+            if (git != null)
+                GitUtils.checkout(git, path, GitUtils.BRANCH_MASTER, !isRemote);
+        }
     }
 
     /******************************************************************************************
@@ -257,20 +307,43 @@ public class YamlDocumentEntryPoint {
                                         String azdoPat,
                                         ArrayList<String> commitPatternList,
                                         boolean continueOnError) {
+        commitAndPushTemplates(azdoUser, azdoPat, commitPatternList, null, null, null, continueOnError);
+    }
+
+    /******************************************************************************************
+     Same as commitAndPushTemplates(), but the main repository is pushed concurrently with the
+     repositories with the manipulated template files.
+     @param mainRepositoryName Name of the main repository; only used for logging.
+     @param mainRepositoryPush Commits and pushes the main repository; it throws an exception if
+                               this fails.
+     @param changeSet If not null, only the files in the change set are staged.
+     ******************************************************************************************/
+    public void commitAndPushTemplates (String azdoUser,
+                                        String azdoPat,
+                                        ArrayList<String> commitPatternList,
+                                        ChangeSet changeSet,
+                                        String mainRepositoryName,
+                                        Callable<Void> mainRepositoryPush,
+                                        boolean continueOnError) {
         logger.debug("==> Method: YamlDocumentEntryPoint.commitAndPushTemplates");
 
-        commitAndPushAllCode (repositoryList, azdoUser, azdoPat, commitPatternList, continueOnError);
+        commitAndPushAllCode (repositoryList, azdoUser, azdoPat, commitPatternList, changeSet, mainRepositoryName, mainRepositoryPush, continueOnError);
     }
 
     /******************************************************************************************
      Commit and push the repository with the manipulated template files to the Azure DevOps test
      project; second method signature. The repositoryList (derived from the resources section)
      is added as argument.
+     The repositories are independent, so they are pushed concurrently (bounded by the number
+     of processors). The errors of all repositories are collected and logged as one report.
      @param repositoryResourceList List of repository resources derived from the resources section.
      @param azdoUser User used in the Azure DevOps API calls, defined in the target AzDo project.
      @param azdoPat Personal Access Token used in the Azure DevOps API calls, defined in the
                     target AzDo project.
      @param commitPatternList List of file types and directories included in a commit.
+     @param changeSet If not null, only the files in the change set are staged.
+     @param mainRepositoryName Name of the main repository; only used for logging.
+     @param mainRepositoryPush If not null, the main repository is pushed concurrently by this task.
      @param continueOnError If an error situation occurs, it is logged as an error (not always)
                             and execution continues if the value is 'true'.
      ******************************************************************************************/
@@ -278,16 +351,72 @@ public class YamlDocumentEntryPoint {
                                        String azdoUser,
                                        String azdoPat,
                                        ArrayList<String> commitPatternList,
+                                       ChangeSet changeSet,
+                                       String mainRepositoryName,
+                                       Callable<Void> mainRepositoryPush,
                                        boolean continueOnError) {
         logger.debug("==> Method: YamlDocumentEntryPoint.commitAndPushAllCode (second method signature)");
 
+        ArrayList<String> repositoryNames = new ArrayList<>();
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        if (mainRepositoryPush != null) {
+            repositoryNames.add(mainRepositoryName);
+            tasks.add(mainRepositoryPush);
+        }
+        if (repositoryResourceList != null) {
+            int size = repositoryResourceList.size();
+            for (int index = 0; index < size; index++) {
+                RepositoryResource repository = repositoryResourceList.get(index);
+                repositoryNames.add(repository.name);
+                tasks.add(() -> {
+                    try (GitSession gitSession = new GitSession(repository.localBase + "/" + repository.name)) {
+                        Git git = gitSession.getGit();
+                        if (git != null) {
+                            logger.debug("Commit and Push repository {}", repository.name);
+                            GitUtils.commitAndPush(git, azdoUser, azdoPat, commitPatternList, changeSet);
+                        }
+                    }
+                    return null;
+                });
+            }
+        }
+
         // Return if there is nothing to push
-        if (repositoryResourceList == null)
+        int size = tasks.size();
+        if (size == 0)
             return;
 
-        repositoryResourceList.forEach(repository -> {
-            commitAndPushAllCode (repository, azdoUser, azdoPat, commitPatternList, continueOnError);
-        });
+        ArrayList<String> errors = new ArrayList<>();
+        try {
+            List<Future<Void>> results = YamlDocument.getPool().invokeAll(tasks);
+            for (int index = 0; index < size; index++) {
+                try {
+                    results.get(index).get();
+                }
+                catch (ExecutionException e) {
+                    errors.add(repositoryNames.get(index) + ": " + e.getCause().getMessage());
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errors.add("Pushing the repositories is interrupted");
+        }
+
+        if (errors.isEmpty())
+            return;
+
+        int errorSize = errors.size();
+        if (continueOnError) {
+            for (int index = 0; index < errorSize; index++)
+                logger.debug("Exception pushing to repo {}", errors.get(index));
+            return;
+        }
+        logger.error("Pushing to {} repositories resulted in {} error(s):", size, errorSize);
+        for (int index = 0; index < errorSize; index++)
+            logger.error("Exception pushing to repo {}", errors.get(index));
+        logger.error("You may need to delete the local clone of these repositories");
+        System.exit(1);
     }
 
     private void commitAndPushAllCode (RepositoryResource repository,
@@ -297,15 +426,17 @@ public class YamlDocumentEntryPoint {
                                        boolean continueOnError) {
         logger.debug("==> Method: YamlDocumentEntryPoint.commitAndPushAllCode (first method signature)");
 
-        Git git = GitUtils.createGit (repository.localBase + "/" + repository.name);
-        if (git != null) {
-            logger.debug("Commit and Push repository {}", repository.name);
-            GitUtils.commitAndPush(git,
-                    azdoUser,
-                    azdoPat,
-                    commitPatternList,
-                    repository,
-                    continueOnError);
+        try (GitSession gitSession = new GitSession(repository.localBase + "/" + repository.name)) {
+            Git git = gitSession.getGit();
+            if (git != null) {
+                logger.debug("Commit and Push repository {}", repository.name);
+                GitUtils.commitAndPush(git,
+                        azdoUser,
+                        azdoPat,
+                        commitPatternList,
+                        repository,
+                        continueOnError);
+            }
         }
     }
 
@@ -317,6 +448,14 @@ public class YamlDocumentEntryPoint {
                         location.
      ******************************************************************************************/
     public void copyAllSourceFiles (String excludeList) {
+        copyAllSourceFiles(excludeList, null);
+    }
+
+    /******************************************************************************************
+     Same as copyAllSourceFiles(excludeList), but the copied files are added to 'changeSet'
+     (if not null).
+     ******************************************************************************************/
+    public void copyAllSourceFiles (String excludeList, ChangeSet changeSet) {
         logger.debug("==> Method: YamlDocumentEntryPoint.copyAllSourceFiles (first method signature)");
 
         // Return if there is nothing to copy
@@ -324,7 +463,7 @@ public class YamlDocumentEntryPoint {
             return;
 
         repositoryList.forEach(repository -> {
-            copyAllSourceFiles (repository, excludeList);
+            copyAllSourceFiles (repository, excludeList, changeSet);
         });
     }
 
@@ -337,7 +476,7 @@ public class YamlDocumentEntryPoint {
      @param excludeList Determines which files and directories must not be copied to the target
                         location.
      ******************************************************************************************/
-    private void copyAllSourceFiles (RepositoryResource repository, String excludeList) {
+    private void copyAllSourceFiles (RepositoryResource repository, String excludeList, ChangeSet changeSet) {
         logger.debug("==> Method: YamlDocumentEntryPoint.copyAllSourceFiles (second method signature)");
 
         String source = repository.localBase + "/" + repository.name + RepositoryResource.LOCAL_SOURCE_POSTFIX;
@@ -345,73 +484,240 @@ public class YamlDocumentEntryPoint {
         logger.debug("source: {}", source);
         logger.debug("target: {}", target);
 
-        Utils.copyAll(source, target, excludeList);
+        Utils.copyAll(source, target, excludeList, changeSet);
     }
 
     /******************************************************************************************
-     Clone the external repositories from their original remotes and copy them to a safe
+     Clone the external repositories from their original remotes and write their files to a safe
      location on the filesystem. This - source - location forms is used to re-read the template
-     files again. The relation with the original remote is gone (unmounted), by removing the
-     .git directory.
+     files again. The repository is cloned bare and the files are written directly from the
+     object database, so there is no working tree to copy; the relation with the original remote
+     is gone (unmounted), because the clone is deleted afterwards.
      @param repository The source repository to be cloned.
      @param azdoUser User used in the Azure DevOps API calls, defined in the target AzDo project.
      @param azdoPat Personal Access Token used in the Azure DevOps API calls, defined in the
                     target AzDo project.
      @param organization Organization of the target AzDo project as defined in property file.
                          For example "myorg".
-     @param deleteGitDirectory Default value (true).
+     @param shallow If true, only the last commit of the branch is cloned.
      ******************************************************************************************/
-    private void cloneAndRenameExternalRepositories (RepositoryResource repository,
-                                                     String azdoUser,
-                                                     String azdoPat,
-                                                     String organization,
-                                                     boolean deleteGitDirectory) {
-        logger.debug("==> Method: YamlDocumentEntryPoint.cloneAndRenameExternalRepositories");
-
-            // Copy (clone) the external repositories to the local filesystem
+    private void cloneAndExportExternalRepository (RepositoryResource repository,
+                                                   String azdoUser,
+                                                   String azdoPat,
+                                                   String organization,
+                                                   boolean shallow) {
+        logger.debug("==> Method: YamlDocumentEntryPoint.cloneAndExportExternalRepository");
+
+        Git git = cloneExternalRepository(repository, azdoUser, azdoPat, organization, shallow);
+        if (git != null) {
             String source = repository.localBase + "/" +  repository.name + RepositoryResource.LOCAL_SOURCE_POSTFIX;
-            String temp = repository.localBase + "/" + repository.name;
-            Git git = null;
-
-            if (repository.type != null) {
-                if ("git".equals(repository.type)) {
-                    git = GitUtils.cloneAzdoToLocal(temp,
-                            repository.name,
-                            azdoUser,
-                            azdoPat,
-                            organization,
-                            repository.project);
-                } else if ("github".equals(repository.type)) {
-                    git = GitUtils.cloneGitHubToLocal(temp,
-                            repository.name,
-                            repository.project);
-                }
+            if (GitUtils.exportTree(git.getRepository(), Constants.HEAD, source) < 0)
+                logger.warn("Cannot write the files of repository {} to {}", repository.name, source);
+        }
+        deleteExternalClone(repository, git);
+    }
 
-                // Checkout the remote branch
-                if (repository.ref != null) {
-                    String branchName = GitUtils.resolveBranchNameFromRef (repository.ref);
-                    git = GitUtils.checkout(git,
-                            temp,
-                            "origin/" + branchName,
-                            false);
-                }
+    /******************************************************************************************
+     Clone an external repository to a temporary directory (the local base, with the name of the
+     repository). The clone is bare; it has no working tree. If the repository resource has a ref,
+     only that branch is cloned.
+     @param shallow If true, only the last commit is cloned.
+     @return The Git object of the clone, or null if the repository cannot be cloned.
+     ******************************************************************************************/
+    private Git cloneExternalRepository (RepositoryResource repository,
+                                         String azdoUser,
+                                         String azdoPat,
+                                         String organization,
+                                         boolean shallow) {
+        logger.debug("==> Method: YamlDocumentEntryPoint.cloneExternalRepository");
+
+        // Copy (clone) the external repositories to the local filesystem
+        String temp = repository.localBase + "/" + repository.name;
+        Git git = null;
+
+        if (repository.type != null) {
+            // Clone only the branch of the ref (if defined); HEAD refers to this branch
+            String branchName = null;
+            if (repository.ref != null)
+                branchName = GitUtils.resolveBranchNameFromRef (repository.ref);
+
+            if ("git".equals(repository.type)) {
+                git = GitUtils.cloneAzdoToLocal(temp,
+                        repository.name,
+                        azdoUser,
+                        azdoPat,
+                        organization,
+                        repository.project,
+                        branchName,
+                        shallow,
+                        true);
+            } else if ("github".equals(repository.type)) {
+                git = GitUtils.cloneGitHubToLocal(temp,
+                        repository.name,
+                        repository.project,
+                        branchName,
+                        shallow,
+                        true);
+            }
+        }
+
+        return git;
+    }
+
+    /******************************************************************************************
+     Delete the (bare) clone of an external repository; its files are already written to the
+     local source ("_source" directory).
+     ******************************************************************************************/
+    private void deleteExternalClone (RepositoryResource repository, Git git) {
+        logger.debug("==> Method: YamlDocumentEntryPoint.deleteExternalClone");
+
+        // Git must be closed, otherwise the directory cannot be deleted
+        if (git != null) {
+            git.close();
+        }
+
+        // Delete the clone, because the directory is re-used by the createRemoteRepositories method.
+        Utils.deleteDirectory(repository.localBase + "/" + repository.name);
+    }
 
-                // Git must be closed, otherwise the .git directory cannot be deleted
-                if (git != null) {
-                    git.close();
-                    Utils.wait(1000);
+    /******************************************************************************************
+     Clone external repositories, but only retrieve the template files that are included by the
+     pipeline. The repositories are cloned bare. The template files are determined by following
+     the template references, starting with the main pipeline file: the main pipeline file and
+     the templates in the main repository are read from the local source, templates of the
+     external repositories are written to their local source one by one, directly from the object
+     database, and read, until no new template references are found.
+     ******************************************************************************************/
+    private void cloneExternalRepositoriesSparse (Map<String, Object> yamlMap,
+                                                  ArrayList<RepositoryResource> repositories,
+                                                  String azdoUser,
+                                                  String azdoPat,
+                                                  String organization,
+                                                  boolean shallow) {
+        logger.debug("==> Method: YamlDocumentEntryPoint.cloneExternalRepositoriesSparse");
+
+        // Clone the repositories; the alias is used in the template references
+        ArrayList<Git> gitList = new ArrayList<>();
+        HashMap<String, Git> gitByAlias = new HashMap<>();
+        HashMap<String, String> sourceByAlias = new HashMap<>();
+        int size = repositories.size();
+        for (int index = 0; index < size; index++) {
+            RepositoryResource repository = repositories.get(index);
+            Git git = cloneExternalRepository(repository, azdoUser, azdoPat, organization, shallow);
+            gitList.add(git);
+            if (git != null && repository.repository != null) {
+                gitByAlias.put(repository.repository, git);
+                sourceByAlias.put(repository.repository, repository.localBase + "/" + repository.name + RepositoryResource.LOCAL_SOURCE_POSTFIX);
+            }
+        }
+
+        // Follow the template references
+        ArrayList<TemplateReference> references = new ArrayList<>();
+        HashSet<String> done = new HashSet<>();
+        addTemplateReferences(yamlMap, null, "", references);
+        for (int index = 0; index < references.size(); index++) {
+            TemplateReference reference = references.get(index);
+            String templateName = reference.templateName;
+            if (templateName.contains("${{")) {
+                logger.debug("Template {} contains an expression; it is skipped", templateName);
+                continue;
+            }
+
+            String alias = reference.alias;
+            String path = templateName;
+            if (templateName.contains("@")) {
+                path = templateName.substring(0, templateName.lastIndexOf('@'));
+                alias = templateName.substring(templateName.lastIndexOf('@') + 1);
+                if ("self".equals(alias))
+                    alias = null;
+            }
+
+            if (alias == null) {
+                // Template in the main repository
+                String fileName = Utils.findFullQualifiedFileNameInDirectory(sourcePath, Utils.fixPath(path));
+                if (fileName != null && done.add(fileName))
+                    addTemplateReferences(loadTemplate(fileName), null, "", references);
+                continue;
+            }
+
+            Git git = gitByAlias.get(alias);
+            if (git == null) {
+                // The repository is not cloned now (or it cannot be cloned)
+                continue;
+            }
+
+            // A path that does not start with '/' is relative to the including template; also try it from the root
+            ArrayList<String> candidates = new ArrayList<>();
+            path = path.replace('\\', '/');
+            if (path.startsWith("/")) {
+                candidates.add(path.substring(1));
+            }
+            else {
+                if (alias.equals(reference.alias) && !reference.directory.isEmpty())
+                    candidates.add(Paths.get(reference.directory, path).normalize().toString().replace('\\', '/'));
+                candidates.add(Paths.get(path).normalize().toString().replace('\\', '/'));
+            }
+
+            boolean found = false;
+            for (int i = 0; i < candidates.size() && !found; i++) {
+                String candidate = candidates.get(i);
+                if (done.contains(alias + "@" + candidate)) {
+                    found = true;
+                    continue;
+                }
+                String source = sourceByAlias.get(alias);
+                if (GitUtils.exportFile(git.getRepository(), Constants.HEAD, candidate, source)) {
+                    found = true;
+                    done.add(alias + "@" + candidate);
+                    Path parent = Paths.get(candidate).getParent();
+                    addTemplateReferences(loadTemplate(source + "/" + candidate), alias, parent == null ? "" : parent.toString().replace('\\', '/'), references);
                 }
             }
+            if (!found)
+                logger.warn("Template {} is not found in repository {}", path, alias);
+        }
 
-            // Keep the cloned repository. It acts as a local source
-            Utils.copyAll(temp, source, "");
+        // The template files are written to the local source; the clones are not needed anymore
+        for (int index = 0; index < size; index++)
+            deleteExternalClone(repositories.get(index), gitList.get(index));
+    }
 
-            // If the repo is cloned and copied, the .git directory should be deleted.
-            if (deleteGitDirectory)
-                Utils.deleteDirectory(source + "/.git");
+    // A template reference (the value of a 'template' key) and the location of the file containing it
+    private static class TemplateReference {
+        String templateName;
+        String alias; // The alias of the repository of the including file; null for the main repository
+        String directory; // The directory of the including file, relative to the root of its repository
 
-            // Delete the original local repository, because it is re-used by the createRemoteRepositories method.
-            Utils.deleteDirectory(temp);
+        TemplateReference(String templateName, String alias, String directory) {
+            this.templateName = templateName;
+            this.alias = alias;
+            this.directory = directory;
+        }
+    }
+
+    private void addTemplateReferences (Map<String, Object> map,
+                                        String alias,
+                                        String directory,
+                                        ArrayList<TemplateReference> references) {
+        if (map == null)
+            return;
+
+        ArrayList<String> templateNames = new ArrayList<>();
+        YamlDocument.getTemplates(map, templateNames);
+        int size = templateNames.size();
+        for (int index = 0; index < size; index++)
+            references.add(new TemplateReference(templateNames.get(index), alias, directory));
+    }
+
+    private Map<String, Object> loadTemplate (String fileName) {
+        try {
+            return YamlFileCache.load(fileName);
+        }
+        catch (Exception e) {
+            logger.warn("Cannot read template {}: {}", fileName, e.getMessage());
+        }
+
+        return null;
     }
 
     // Get the repositories in the resources section from the main .yml file
@@ -552,14 +858,37 @@ public class YamlDocumentEntryPoint {
 
     /******************************************************************************************
      The manipulated yaml maps are saved onto the local file system. The location is a target
-     location.
+     location. Files of which the content did not change are not written; see getWrittenFiles().
      ******************************************************************************************/
     public void dumpYaml () throws IOException {
+        dumpYaml(null, null);
+    }
+
+    /******************************************************************************************
+     Same as dumpYaml(), but the yaml files of the main repository (the target path) are not
+     written; the content of the changed files is added to 'inMemoryFiles' (target file name ->
+     content). The yaml files of external repositories are written as usual.
+     ******************************************************************************************/
+    public void dumpYaml (Map<String, byte[]> inMemoryFiles) throws IOException {
+        dumpYaml(targetPath, inMemoryFiles);
+    }
+
+    private void dumpYaml (String inMemoryPath, Map<String, byte[]> inMemoryFiles) throws IOException {
         logger.debug("==> Method: YamlDocumentEntryPoint.dumpYaml");
 
+        // Apply the actions that are not executed yet
+        applyActionPlan();
+
         // Dump the updated YAML files to the target directory (with the same name as the original file in the source directory)
         logger.info("Write output files");
-        mainYamlDocument.dumpYaml();
+        writtenFiles = new ArrayList<>();
+        mainYamlDocument.dumpYaml(writtenFiles, inMemoryPath, inMemoryFiles);
+        logger.debug("Number of files written: {}", writtenFiles.size());
+    }
+
+    // Returns the names of the files that were written by the last dumpYaml()
+    public ArrayList<String> getWrittenFiles () {
+        return writtenFiles;
     }
 
     /******************************************************************************************
@@ -569,17 +898,29 @@ public class YamlDocumentEntryPoint {
      @param validEnvironments List of all Environments of the Azure DevOps project, retrieved
                               by an API.
      @param project Target Azure DevOps project.
+     @param validateInMemory If 'true', the yaml maps are validated without reading the output
+                             files; only use this if the output files were not changed after
+                             they were written (for example by a hook).
      @param continueOnError If an error situation occurs, it is logged as an error (not always)
                             and execution continues if the value is 'true'.
      ******************************************************************************************/
     public void validateTargetOutputFilesAndTemplates (ArrayList<String> validVariableGroups,
                                                        ArrayList<String> validEnvironments,
                                                        String project,
+                                                       boolean validateInMemory,
                                                        boolean continueOnError) {
         logger.debug("==> Method: YamlDocumentEntryPoint.validateTargetOutputFilesAndTemplates");
+        logger.debug("validateInMemory: {}", validateInMemory);
 
         logger.info("Validate output files");
-        mainYamlDocument.validateTargetOutputFilesAndTemplates(validVariableGroups, validEnvironments, project, continueOnError);
+        mainYamlDocument.validateTargetOutputFilesAndTemplates(validVariableGroups, validEnvironments, project, validateInMemory, continueOnError);
+    }
+
+    public void validateTargetOutputFilesAndTemplates (ArrayList<String> validVariableGroups,
+                                                       ArrayList<String> validEnvironments,
+                                                       String project,
+                                                       boolean continueOnError) {
+        validateTargetOutputFilesAndTemplates(validVariableGroups, validEnvironments, project, false, continueOnError);
     }
 
     /******************************************************************************************
@@ -596,9 +937,24 @@ public class YamlDocumentEntryPoint {
         logger.debug("action: {}", action.getClass().getName());
         logger.debug("sectionType: {}", sectionType);
         logger.debug("sectionIdentifier: {}", sectionIdentifier);
+        if (actionPlan != null) {
+            actionPlan.add(action, sectionType, sectionIdentifier);
+            return new ActionResult();
+        }
         return mainYamlDocument.performAction (action, sectionType, sectionIdentifier);
     }
 
+    public ActionResult performAction (SectionSelector selector,
+                                       Function<String, Action> actionFactory) {
+        logger.debug("==> Method: YamlDocumentEntryPoint.performAction");
+        logger.debug("selector: {}", selector.getExpression());
+        if (actionPlan != null) {
+            actionPlan.add(selector, actionFactory);
+            return new ActionResult();
+        }
+        return mainYamlDocument.performAction (selector, actionFactory);
+    }
+
     /******************************************************************************************
      Replaces a string (identified by 'literalToReplace') in a YAML file with another string
      (identified by 'newValue').
@@ -612,7 +968,79 @@ public class YamlDocumentEntryPoint {
         logger.debug("newValue: {}", newValue);
         logger.debug("continueSearching: {}", replaceAll);
 
-        mainYamlDocument.overrideLiteral(literalToReplace, newValue, replaceAll);
+        LinkedHashMap<String, String> literals = new LinkedHashMap<>();
+        literals.put(literalToReplace, newValue);
+        overrideLiterals(literals, replaceAll);
+    }
+
+    /******************************************************************************************
+     Replaces multiple strings in the YAML files in one pass. The keys of the map are the
+     literals to replace, the values are the new values. A replaced value is not searched again,
+     and if multiple literals start at the same position, the longest one is replaced.
+     @param literals Map with the literals and their new values.
+     @param replaceAll Replaces all occurences of each literal; if false, only the first occurrence
+                       in each file is replaced.
+     @return The number of replacements per target file. If the actions are deferred, the map is
+             empty; the replacements are logged when the action plan is applied.
+     ******************************************************************************************/
+    public Map<String, Integer> overrideLiterals (Map<String, String> literals, boolean replaceAll) {
+        logger.debug("==> Method: YamlDocumentEntryPoint.overrideLiterals");
+        logger.debug("literals: {}", literals);
+        logger.debug("replaceAll: {}", replaceAll);
+
+        Map<String, Integer> replacements = new LinkedHashMap<>();
+        if (literals.isEmpty())
+            return replacements;
+        if (actionPlan != null) {
+            actionPlan.addOverrideLiterals(literals, replaceAll);
+            return replacements;
+        }
+        mainYamlDocument.overrideLiterals(new LiteralMatcher(new ArrayList<>(literals.keySet())),
+                new ArrayList<>(literals.values()),
+                replaceAll,
+                replacements);
+
+        return replacements;
+    }
+
+    /******************************************************************************************
+     If 'deferActions' is true, actions and literal overrides are not executed immediately, but
+     recorded in an action plan. The plan is applied by applyActionPlan(), or just before the
+     yaml files are dumped.
+     ******************************************************************************************/
+    public void setDeferActions (boolean deferActions) {
+        if (deferActions) {
+            if (actionPlan == null)
+                actionPlan = new ActionPlan();
+        }
+        else {
+            applyActionPlan();
+            actionPlan = null;
+        }
+    }
+
+    /******************************************************************************************
+     Apply all recorded actions to the main yaml document and its templates. Each document is
+     handled once, applying all actions in the order in which they were recorded.
+     @return The descriptions of the actions that did not match any section; empty if actions
+             are not deferred.
+     ******************************************************************************************/
+    public ArrayList<String> applyActionPlan () {
+        logger.debug("==> Method: YamlDocumentEntryPoint.applyActionPlan");
+
+        if (actionPlan == null || actionPlan.isEmpty())
+            return new ArrayList<>();
+
+        logger.info("Apply deferred actions");
+        return actionPlan.apply(mainYamlDocument);
+    }
+
+    // Returns the actions that did not match anything the last time the action plan was applied
+    public ArrayList<String> getUnmatchedActions () {
+        if (actionPlan == null)
+            return new ArrayList<>();
+
+        return actionPlan.getUnmatchedActions();
     }
 
     public void makeResourcesLocal () {
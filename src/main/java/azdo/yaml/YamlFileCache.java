@@ -0,0 +1,155 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.yaml;
+
+import azdo.utils.Log;
+import azdo.utils.Utils;
+import org.yaml.snakeyaml.Yaml;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/******************************************************************************************
+ The YamlFileCache contains parsed YAML files and is shared by all YamlDocument objects in the
+ JVM. A template that is included in multiple places, or a pipeline file that is used by
+ multiple AzDoPipeline objects, is only parsed once.
+ The cache key is the canonical path of the file; an entry is only used if the size and the
+ modification time of the file are unchanged. The caller always receives a copy of the parsed
+ YAML, so it can be manipulated without affecting the cache.
+ The number of entries is limited; the least recently used entry is removed if the limit is
+ exceeded.
+ *******************************************************************************************/
+public class YamlFileCache {
+    private static final Log logger = Log.getLogger();
+    private static final int DEFAULT_MAX_ENTRIES = 256;
+    private static int maxEntries = DEFAULT_MAX_ENTRIES;
+    private static long hits = 0;
+    private static long misses = 0;
+    private static long evictions = 0;
+
+    // Access-ordered map; the eldest entry is the least recently used one
+    private static final LinkedHashMap<String, CacheEntry> cache = new LinkedHashMap<String, CacheEntry>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            if (size() > maxEntries) {
+                logger.debug("Evict {} from the YAML cache", eldest.getKey());
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private static class CacheEntry {
+        long size;
+        long lastModified; // In nanoseconds, if the file system supports it
+        Object yaml; // The parsed YAML; this object is never handed out
+
+        CacheEntry(long size, long lastModified, Object yaml) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.yaml = yaml;
+        }
+    }
+
+    private YamlFileCache() {}
+
+    /******************************************************************************************
+     Returns the parsed content of a YAML file. If the file was parsed before and did not change
+     since, a copy of the cached content is returned; otherwise the file is parsed and added to
+     the cache.
+     @param fileName The name of the YAML file.
+     @throws IOException if the file cannot be read.
+     ******************************************************************************************/
+    public static Map<String, Object> load (String fileName) throws IOException {
+        logger.debug("==> Method: YamlFileCache.load");
+        logger.debug("fileName: {}", fileName);
+
+        Path path = Paths.get(fileName).toRealPath();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        String key = path.toString();
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+
+        synchronized (cache) {
+            CacheEntry entry = cache.get(key);
+            if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+                hits++;
+                logger.debug("YAML cache hit: {}", key);
+                return (Map<String, Object>) Utils.deepCopy(entry.yaml);
+            }
+            misses++;
+        }
+
+        // Parse the file outside the lock, so other files can be read in the meantime
+        logger.debug("YAML cache miss: {}", key);
+        Object yaml;
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            yaml = new Yaml().load(inputStream);
+        }
+
+        synchronized (cache) {
+            cache.put(key, new CacheEntry(size, lastModified, yaml));
+        }
+
+        return (Map<String, Object>) Utils.deepCopy(yaml);
+    }
+
+    /******************************************************************************************
+     Sets the maximum number of files in the cache. If the cache contains more files, the least
+     recently used ones are removed.
+     ******************************************************************************************/
+    public static void setMaxEntries (int max) {
+        synchronized (cache) {
+            maxEntries = Math.max(1, max);
+            while (cache.size() > maxEntries) {
+                String eldest = cache.keySet().iterator().next();
+                cache.remove(eldest);
+                evictions++;
+            }
+        }
+    }
+
+    public static int getMaxEntries () {
+        synchronized (cache) {
+            return maxEntries;
+        }
+    }
+
+    public static void clear () {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    public static int size () {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public static long getHits () {
+        synchronized (cache) {
+            return hits;
+        }
+    }
+
+    public static long getMisses () {
+        synchronized (cache) {
+            return misses;
+        }
+    }
+
+    public static long getEvictions () {
+        synchronized (cache) {
+            return evictions;
+        }
+    }
+}
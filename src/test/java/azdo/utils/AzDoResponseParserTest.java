@@ -0,0 +1,78 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.utils;
+
+import azdo.junit.TimelineRecord;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class AzDoResponseParserTest {
+    private static final String BUILD = "{\"id\":42,\"buildNumber\":\"20230601.1\",\"status\":\"completed\",\"result\":\"succeeded\"," +
+            "\"queueTime\":\"2023-06-01T10:15:30.1234567Z\",\"startTime\":null," +
+            "\"definition\":{\"id\":7,\"name\":\"pipeline\"},\"tags\":[\"a\",{\"b\":1}]," +
+            "\"_links\":{\"self\":{\"href\":\"https://self\"},\"web\":{\"href\":\"https://web\"}}}";
+
+    private static InputStream body(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testGetField() throws IOException {
+        Assertions.assertEquals("42", AzDoResponseParser.getField(body(BUILD), "id"));
+        Assertions.assertNull(AzDoResponseParser.getField(body(BUILD), "name"));
+        Assertions.assertNull(AzDoResponseParser.getField(body("[]"), "id"));
+    }
+
+    @Test
+    public void testGetBuilds() throws IOException {
+        String json = "{\"count\":2,\"value\":[" + BUILD + ",{\"id\":43,\"status\":\"inProgress\"}]}";
+        ArrayList<BuildStatus> builds = AzDoResponseParser.getBuilds(body(json));
+        Assertions.assertEquals(2, builds.size());
+        BuildStatus build = builds.get(0);
+        Assertions.assertEquals("42", build.id);
+        Assertions.assertEquals("20230601.1", build.buildNumber);
+        Assertions.assertEquals("completed", build.status);
+        Assertions.assertEquals("succeeded", build.result);
+        Assertions.assertEquals("2023-06-01T10:15:30.1234567Z", build.queueTime);
+        Assertions.assertNull(build.startTime);
+        Assertions.assertEquals("https://web", build.webUrl);
+        Assertions.assertEquals("43", builds.get(1).id);
+        Assertions.assertEquals("inProgress", builds.get(1).status);
+        Assertions.assertNull(builds.get(1).result);
+    }
+
+    @Test
+    public void testFindInValueAndGetValues() throws IOException {
+        String json = "{\"value\":[{\"id\":\"1\",\"name\":\"dev\"},{\"id\":\"2\",\"name\":\"prod\",\"nested\":{\"name\":\"dev\"}},{\"id\":\"3\"}],\"count\":3}";
+        Assertions.assertEquals("2", AzDoResponseParser.findInValue(body(json), "name", "prod", "id"));
+        Assertions.assertNull(AzDoResponseParser.findInValue(body(json), "name", "test", "id"));
+        Assertions.assertEquals(Arrays.asList("dev", "prod"), AzDoResponseParser.getValues(body(json), "name"));
+        Assertions.assertEquals(0, AzDoResponseParser.getValues(body("{\"count\":0}"), "name").size());
+    }
+
+    @Test
+    public void testGetTimelineRecords() throws IOException {
+        String json = "{\"records\":[{\"id\":\"r1\",\"parentId\":null,\"type\":\"Stage\",\"name\":\"build\",\"state\":\"completed\"," +
+                "\"result\":\"succeeded\",\"issues\":[{\"message\":\"x\"}]}],\"lastChangedBy\":\"someone\"}";
+        ArrayList<TimelineRecord> timelineRecords = AzDoResponseParser.getTimelineRecords(body(json));
+        Assertions.assertEquals(1, timelineRecords.size());
+        TimelineRecord timelineRecord = timelineRecords.get(0);
+        Assertions.assertEquals("r1", timelineRecord.id);
+        Assertions.assertEquals("", timelineRecord.parentId);
+        Assertions.assertEquals("Stage", timelineRecord.type);
+        Assertions.assertEquals("succeeded", timelineRecord.result);
+        Assertions.assertNull(timelineRecord.startTime);
+    }
+
+    @Test
+    public void testInvalidJson() {
+        Assertions.assertThrows(IOException.class, () -> AzDoResponseParser.getBuilds(body("{\"value\":[{\"id\":")));
+    }
+}
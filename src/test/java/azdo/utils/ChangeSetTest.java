@@ -0,0 +1,47 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class ChangeSetTest {
+    @Test
+    public void testPathsRelativeToRoot(@TempDir Path directory) {
+        String root = directory.resolve("repo").toString();
+        ChangeSet changeSet = new ChangeSet();
+        Assertions.assertTrue(changeSet.isEmpty());
+        changeSet.addChanged(Arrays.asList(root + "/pipeline.yml", root + "/templates/../templates/steps.yml"));
+        changeSet.addDeleted(root + "/old.yml");
+        Assertions.assertFalse(changeSet.isEmpty());
+        Assertions.assertEquals(Arrays.asList("pipeline.yml", "templates/steps.yml"), changeSet.getChangedPaths(root));
+        Assertions.assertEquals(Collections.singletonList("old.yml"), changeSet.getDeletedPaths(root));
+    }
+
+    @Test
+    public void testOtherRepositoriesAreExcluded(@TempDir Path directory) {
+        String root = directory.resolve("repo").toString();
+        ChangeSet changeSet = new ChangeSet();
+        changeSet.addChanged(root + "/pipeline.yml");
+        changeSet.addChanged(directory.resolve("repo-external").resolve("pipeline.yml").toString());
+        changeSet.addChanged(root);
+        Assertions.assertEquals(Collections.singletonList("pipeline.yml"), changeSet.getChangedPaths(root));
+    }
+
+    @Test
+    public void testLastChangeWins(@TempDir Path directory) {
+        String root = directory.toString();
+        ChangeSet changeSet = new ChangeSet();
+        changeSet.addChanged(root + "/a.yml");
+        changeSet.addDeleted(root + "/a.yml");
+        changeSet.addDeleted(root + "/b.yml");
+        changeSet.addChanged(root + "/b.yml");
+        Assertions.assertEquals(Collections.singletonList("b.yml"), changeSet.getChangedPaths(root));
+        Assertions.assertEquals(Collections.singletonList("a.yml"), changeSet.getDeletedPaths(root));
+    }
+}
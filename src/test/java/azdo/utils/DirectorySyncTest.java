@@ -0,0 +1,114 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class DirectorySyncTest {
+    private static final String EXCLUSION_PATTERN = "(?i).*(\\.git|\\.idea|\\.tmp)";
+
+    @TempDir
+    Path directory;
+    Path source;
+    Path target;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        source = Files.createDirectories(directory.resolve("source"));
+        target = directory.resolve("target");
+        write(source.resolve("pipeline.yml"), "steps: []");
+        write(source.resolve("templates/steps.yml"), "steps:\n- script: echo");
+        write(source.resolve("file.tmp"), "temp");
+        write(source.resolve(".git/config"), "[core]");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        DirectorySync.setCompareContent(false);
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+    private ArrayList<String> sync() throws IOException {
+        ChangeSet changeSet = new ChangeSet();
+        DirectorySync.sync(source.toString(), target.toString(), EXCLUSION_PATTERN, changeSet);
+        ArrayList<String> changed = changeSet.getChangedPaths(target.toString());
+        Collections.sort(changed);
+        return changed;
+    }
+
+    @Test
+    public void testCopyWithExclusions() throws IOException {
+        Assertions.assertEquals(Arrays.asList("pipeline.yml", "templates/steps.yml"), sync());
+        Assertions.assertEquals("steps: []", Files.readString(target.resolve("pipeline.yml")));
+        Assertions.assertFalse(Files.exists(target.resolve("file.tmp")));
+        Assertions.assertFalse(Files.exists(target.resolve(".git")));
+    }
+
+    @Test
+    public void testOnlyChangedFilesAreCopied() throws IOException {
+        sync();
+        Assertions.assertEquals(Collections.emptyList(), sync());
+
+        write(source.resolve("pipeline.yml"), "steps: [changed]");
+        Assertions.assertEquals(Collections.singletonList("pipeline.yml"), sync());
+        Assertions.assertEquals("steps: [changed]", Files.readString(target.resolve("pipeline.yml")));
+    }
+
+    @Test
+    public void testCompareContent() throws IOException {
+        sync();
+        FileTime later = FileTime.fromMillis(Files.getLastModifiedTime(source.resolve("pipeline.yml")).toMillis() + 60000);
+        Files.setLastModifiedTime(source.resolve("pipeline.yml"), later);
+
+        // Same size and content, but another modification time
+        DirectorySync.setCompareContent(true);
+        Assertions.assertEquals(Collections.emptyList(), sync());
+        Assertions.assertEquals(later.toMillis(), Files.getLastModifiedTime(target.resolve("pipeline.yml")).toMillis());
+
+        Files.setLastModifiedTime(source.resolve("pipeline.yml"), FileTime.fromMillis(later.toMillis() + 60000));
+        DirectorySync.setCompareContent(false);
+        Assertions.assertEquals(Collections.singletonList("pipeline.yml"), sync());
+    }
+
+    @Test
+    public void testRemovedFilesAreDeleted() throws IOException {
+        sync();
+        write(target.resolve("target-only.yml"), "steps: []");
+        Files.delete(source.resolve("templates/steps.yml"));
+
+        ChangeSet changeSet = new ChangeSet();
+        DirectorySync.sync(source.toString(), target.toString(), EXCLUSION_PATTERN, changeSet);
+        ArrayList<String> deleted = changeSet.getDeletedPaths(target.toString());
+        Collections.sort(deleted);
+        Assertions.assertEquals(Arrays.asList("target-only.yml", "templates/steps.yml"), deleted);
+        Assertions.assertFalse(Files.exists(target.resolve("templates/steps.yml")));
+        Assertions.assertFalse(Files.exists(target.resolve("target-only.yml")));
+    }
+
+    @Test
+    public void testGitDirectoryAndExcludedFilesAreNotDeleted() throws IOException {
+        write(target.resolve(".git/HEAD"), "ref: refs/heads/main");
+        write(target.resolve(".idea/workspace.xml"), "<project/>");
+        write(target.resolve("build.tmp"), "temp");
+        sync();
+        Assertions.assertTrue(Files.exists(target.resolve(".git/HEAD")));
+        Assertions.assertTrue(Files.exists(target.resolve(".idea/workspace.xml")));
+        Assertions.assertTrue(Files.exists(target.resolve("build.tmp")));
+    }
+}
@@ -0,0 +1,67 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class FileIndexTest {
+    @BeforeEach
+    @AfterEach
+    public void clear() {
+        FileIndex.setExclusionPattern(null);
+        FileIndex.clear();
+    }
+
+    @Test
+    public void testFindByPathSuffix(@TempDir Path root) throws IOException {
+        Path file = write(root.resolve("a/b/c.yml"));
+        String expected = file.toString();
+        FileIndex fileIndex = FileIndex.of(root.toString());
+        Assertions.assertEquals(expected, fileIndex.find("c.yml"));
+        Assertions.assertEquals(expected, fileIndex.find("b/c.yml"));
+        Assertions.assertEquals(expected, fileIndex.find("a/b/c.yml"));
+        Assertions.assertEquals(expected, fileIndex.find("/a/b/c.yml"));
+        Assertions.assertEquals(expected, fileIndex.find(expected));
+        Assertions.assertNull(fileIndex.find(".yml")); // Not a complete path component
+        Assertions.assertNull(fileIndex.find("x/c.yml"));
+    }
+
+    @Test
+    public void testBuildOutputAndExcludedDirectoriesAreSkipped(@TempDir Path root) throws IOException {
+        write(root.resolve("target/steps.yml"));
+        write(root.resolve("node_modules/module.yml"));
+        write(root.resolve(".git/config.yml"));
+        write(root.resolve(".idea/workspace.yml"));
+        Path steps = write(root.resolve("templates/steps.yml"));
+        FileIndex.setExclusionPattern("(?i).*(\\.idea)");
+        FileIndex fileIndex = FileIndex.of(root.toString());
+        Assertions.assertEquals(steps.toString(), fileIndex.find("steps.yml"));
+        Assertions.assertNull(fileIndex.find("module.yml"));
+        Assertions.assertNull(fileIndex.find("config.yml"));
+        Assertions.assertNull(fileIndex.find("workspace.yml"));
+    }
+
+    @Test
+    public void testDeletedFileRebuildsTheIndex(@TempDir Path root) throws IOException {
+        Path first = write(root.resolve("a/steps.yml"));
+        FileIndex fileIndex = FileIndex.of(root.toString());
+        Assertions.assertEquals(first.toString(), fileIndex.find("steps.yml"));
+        Files.delete(first);
+        Path second = write(root.resolve("b/steps.yml"));
+        Assertions.assertEquals(second.toString(), fileIndex.find("steps.yml"));
+    }
+
+    private static Path write(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, "steps: []\n");
+        return file;
+    }
+}
@@ -0,0 +1,65 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class LiteralMatcherTest {
+    @Test
+    public void testReplace() {
+        LiteralMatcher literalMatcher = new LiteralMatcher(Arrays.asList("dev", "prod"));
+        int[] counts = new int[2];
+        String replaced = literalMatcher.replace("deploy to dev, then prod, then dev", Arrays.asList("test", "acc"), null, counts);
+        Assertions.assertEquals("deploy to test, then acc, then test", replaced);
+        Assertions.assertArrayEquals(new int[] {2, 1}, counts);
+    }
+
+    @Test
+    public void testNoMatchReturnsSameString() {
+        LiteralMatcher literalMatcher = new LiteralMatcher(Collections.singletonList("dev"));
+        String text = "production";
+        Assertions.assertSame(text, literalMatcher.replace(text, Collections.singletonList("test"), null, new int[1]));
+        Assertions.assertNull(literalMatcher.replace(null, Collections.singletonList("test"), null, new int[1]));
+    }
+
+    @Test
+    public void testLongestLiteralWins() {
+        LiteralMatcher literalMatcher = new LiteralMatcher(Arrays.asList("BUILD_SOURCEBRANCH", "BUILD_SOURCEBRANCHNAME"));
+        int[] counts = new int[2];
+        String replaced = literalMatcher.replace("$(BUILD_SOURCEBRANCHNAME) $(BUILD_SOURCEBRANCH)", Arrays.asList("refs/heads/main", "main"), null, counts);
+        Assertions.assertEquals("$(main) $(refs/heads/main)", replaced);
+        Assertions.assertArrayEquals(new int[] {1, 1}, counts);
+    }
+
+    @Test
+    public void testLeftmostLiteralWins() {
+        // 'abc' starts before 'bcd', so 'bcd' is not replaced
+        LiteralMatcher literalMatcher = new LiteralMatcher(Arrays.asList("bcd", "abc"));
+        int[] counts = new int[2];
+        Assertions.assertEquals("Xd", literalMatcher.replace("abcd", Arrays.asList("Y", "X"), null, counts));
+        Assertions.assertArrayEquals(new int[] {0, 1}, counts);
+    }
+
+    @Test
+    public void testRemaining() {
+        LiteralMatcher literalMatcher = new LiteralMatcher(Collections.singletonList("a"));
+        List<String> replacements = Collections.singletonList("b");
+        int[] remaining = {1};
+        int[] counts = new int[1];
+        Assertions.assertEquals("baa", literalMatcher.replace("aaa", replacements, remaining, counts));
+        Assertions.assertEquals("aa", literalMatcher.replace("aa", replacements, remaining, counts));
+        Assertions.assertEquals(0, remaining[0]);
+        Assertions.assertEquals(1, counts[0]);
+    }
+
+    @Test
+    public void testInvalidLiteral() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new LiteralMatcher(Collections.singletonList("")));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new LiteralMatcher(Collections.singletonList(null)));
+    }
+}
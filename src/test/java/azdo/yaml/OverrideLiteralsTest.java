@@ -0,0 +1,78 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.yaml;
+
+import azdo.utils.LiteralMatcher;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yaml.snakeyaml.Yaml;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+public class OverrideLiteralsTest {
+    private static YamlDocument read(Path directory, String yaml) throws IOException {
+        Files.writeString(directory.resolve("pipeline.yml"), yaml);
+        Files.createDirectories(directory.resolve("target"));
+        YamlDocument yamlDocument = new YamlDocument("pipeline.yml", directory.toString(), directory.resolve("target").toString(), "source", "target");
+        Assertions.assertNotNull(yamlDocument.readYaml(true));
+        return yamlDocument;
+    }
+
+    private static int override(YamlDocument yamlDocument, String literal, String newValue) {
+        return yamlDocument.overrideLiteralsOnThis(new LiteralMatcher(Collections.singletonList(literal)),
+                new ArrayList<>(Collections.singletonList(newValue)),
+                true);
+    }
+
+    // Dump the document and read the dumped file, so the types are checked as they end up in the yaml file
+    private static Map<String, Object> dump(YamlDocument yamlDocument, Path directory) throws IOException {
+        yamlDocument.dumpYaml(new ArrayList<>());
+        return new Yaml().load(Files.readString(directory.resolve("target").resolve("pipeline.yml")));
+    }
+
+    @Test
+    public void testReplacedScalarKeepsItsType(@TempDir Path directory) throws IOException {
+        YamlDocument yamlDocument = read(directory, "timeoutInMinutes: 5\nenabled: true\nversion: 5.1\nname: job-5\n");
+        Assertions.assertEquals(3, override(yamlDocument, "5", "10"));
+        Assertions.assertEquals(1, override(yamlDocument, "true", "false"));
+        Assertions.assertTrue(yamlDocument.isDirty());
+        Map<String, Object> yamlMap = dump(yamlDocument, directory);
+        Assertions.assertEquals(10, yamlMap.get("timeoutInMinutes"));
+        Assertions.assertEquals(false, yamlMap.get("enabled"));
+        Assertions.assertEquals(10.1, yamlMap.get("version"));
+        Assertions.assertEquals("job-10", yamlMap.get("name"));
+    }
+
+    @Test
+    public void testReplacedNumberThatIsNoNumberBecomesString(@TempDir Path directory) throws IOException {
+        YamlDocument yamlDocument = read(directory, "timeoutInMinutes: 5\n");
+        Assertions.assertEquals(1, override(yamlDocument, "5", "$(timeout)"));
+        Assertions.assertEquals("$(timeout)", dump(yamlDocument, directory).get("timeoutInMinutes"));
+    }
+
+    @Test
+    public void testReplacedKeyKeepsOrder(@TempDir Path directory) throws IOException {
+        YamlDocument yamlDocument = read(directory, "first: 1\nold: 2\nlast: 3\n");
+        Assertions.assertEquals(1, override(yamlDocument, "old", "new"));
+        Map<String, Object> yamlMap = dump(yamlDocument, directory);
+        Assertions.assertEquals(Arrays.asList("first", "new", "last"), new ArrayList<>(yamlMap.keySet()));
+        Assertions.assertEquals(2, yamlMap.get("new"));
+    }
+
+    @Test
+    public void testReplacedKeyCollidesWithExistingKey(@TempDir Path directory) throws IOException {
+        // As when the replaced yaml is read again, the last value wins at the position of the first key
+        YamlDocument yamlDocument = read(directory, "dev: 1\nprod: 2\nacc: 3\n");
+        Assertions.assertEquals(1, override(yamlDocument, "dev", "prod"));
+        Map<String, Object> yamlMap = dump(yamlDocument, directory);
+        Assertions.assertEquals(Arrays.asList("prod", "acc"), new ArrayList<>(yamlMap.keySet()));
+        Assertions.assertEquals(2, yamlMap.get("prod"));
+    }
+}
@@ -0,0 +1,142 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.yaml;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.yaml.snakeyaml.Yaml;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SectionIndexTest {
+    private static final String PIPELINE = "stages:\n" +
+            "- stage: build\n" +
+            "  jobs:\n" +
+            "  - job: compile\n" +
+            "    steps:\n" +
+            "    - script: echo compile\n" +
+            "      displayName: Compile\n" +
+            "    - task: Bash@3\n" +
+            "      displayName: Deploy\n" +
+            "- stage: test\n" +
+            "  jobs:\n" +
+            "  - job: compile\n" +
+            "    steps:\n" +
+            "    - script: echo test\n" +
+            "      displayName: Deploy\n";
+    private static final List<String> TOKENS = Arrays.asList("stages", "stage", "build", "test", "jobs", "job", "compile",
+            "steps", "script", "task", "Bash@3", "displayName", "Deploy", "Compile", "echo compile", "echo test", "echo new");
+
+    // The updated index must be equal to an index that is built from scratch
+    private static void assertSameAsRebuilt(SectionIndex sectionIndex, Map<String, Object> yamlMap) {
+        Assertions.assertTrue(sectionIndex.isValid());
+        SectionIndex rebuilt = new SectionIndex();
+        rebuilt.build(yamlMap);
+        for (String token : TOKENS) {
+            ArrayList<SectionIndex.IndexEntry> expected = rebuilt.lookup(token);
+            ArrayList<SectionIndex.IndexEntry> actual = sectionIndex.lookup(token);
+            Assertions.assertEquals(expected.size(), actual.size(), "Number of entries of " + token);
+            for (int i = 0; i < expected.size(); i++) {
+                Assertions.assertSame(expected.get(i).section, actual.get(i).section, token);
+                Assertions.assertEquals(expected.get(i).key, actual.get(i).key, token);
+                Assertions.assertSame(expected.get(i).parentList, actual.get(i).parentList, token);
+                Assertions.assertEquals(expected.get(i).position, actual.get(i).position, token);
+            }
+        }
+    }
+
+    private static ArrayList<Object> steps(Map<String, Object> yamlMap, int stage) {
+        Map<String, Object> stageMap = (Map<String, Object>) ((ArrayList<Object>) yamlMap.get("stages")).get(stage);
+        Map<String, Object> jobMap = (Map<String, Object>) ((ArrayList<Object>) stageMap.get("jobs")).get(0);
+        return (ArrayList<Object>) jobMap.get("steps");
+    }
+
+    private static Map<String, Object> step(String type, String value, String displayName) {
+        Map<String, Object> step = new LinkedHashMap<>();
+        step.put(type, value);
+        step.put("displayName", displayName);
+        return step;
+    }
+
+    @Test
+    public void testPositions() {
+        Map<String, Object> yamlMap = new Yaml().load(PIPELINE);
+        SectionIndex sectionIndex = new SectionIndex();
+        sectionIndex.build(yamlMap);
+        ArrayList<SectionIndex.IndexEntry> entries = sectionIndex.lookup("Deploy");
+        Assertions.assertEquals(2, entries.size());
+        Assertions.assertSame(steps(yamlMap, 0), entries.get(0).parentList);
+        Assertions.assertEquals(1, entries.get(0).position);
+        Assertions.assertEquals(0, entries.get(1).position);
+        Assertions.assertEquals(-1, sectionIndex.lookup("stages").get(0).position);
+    }
+
+    @Test
+    public void testInsertDeleteAndUpdate() {
+        Map<String, Object> yamlMap = new Yaml().load(PIPELINE);
+        SectionIndex sectionIndex = new SectionIndex();
+        sectionIndex.build(yamlMap);
+
+        // Insert a section before the first step
+        ArrayList<Object> steps = steps(yamlMap, 0);
+        steps.add(0, step("script", "echo new", "Deploy"));
+        sectionIndex.update(steps);
+        assertSameAsRebuilt(sectionIndex, yamlMap);
+        Assertions.assertEquals(2, sectionIndex.lookup("task").get(0).position);
+
+        // Delete a section
+        steps.remove(1);
+        sectionIndex.update(steps);
+        assertSameAsRebuilt(sectionIndex, yamlMap);
+        Assertions.assertEquals(0, sectionIndex.lookup("Compile").size());
+
+        // Change a scalar
+        ((Map<String, Object>) steps(yamlMap, 1).get(0)).put("displayName", "Compile");
+        sectionIndex.update(steps(yamlMap, 1));
+        assertSameAsRebuilt(sectionIndex, yamlMap);
+
+        // Delete a complete stage, including its lists
+        ArrayList<Object> stages = (ArrayList<Object>) yamlMap.get("stages");
+        stages.remove(0);
+        sectionIndex.update(stages);
+        assertSameAsRebuilt(sectionIndex, yamlMap);
+        Assertions.assertEquals(0, sectionIndex.lookup("Bash@3").size());
+    }
+
+    @Test
+    public void testManyInsertsInOneList() {
+        Map<String, Object> yamlMap = new Yaml().load(PIPELINE);
+        SectionIndex sectionIndex = new SectionIndex();
+        sectionIndex.build(yamlMap);
+        ArrayList<Object> steps = steps(yamlMap, 1);
+        for (int i = 0; i < 60; i++) {
+            steps.add(i % 2, step("script", "echo new", "Deploy"));
+            sectionIndex.update(steps);
+        }
+        assertSameAsRebuilt(sectionIndex, yamlMap);
+        Assertions.assertEquals(62, sectionIndex.lookup("script").size());
+    }
+
+    @Test
+    public void testUnknownNodeInvalidatesTheIndex() {
+        Map<String, Object> yamlMap = new Yaml().load(PIPELINE);
+        SectionIndex sectionIndex = new SectionIndex();
+        sectionIndex.build(yamlMap);
+        sectionIndex.update(new ArrayList<>());
+        Assertions.assertFalse(sectionIndex.isValid());
+    }
+
+    @Test
+    public void testAliasInvalidatesTheIndexOnUpdate() {
+        Map<String, Object> yamlMap = new Yaml().load("steps:\n- &step\n  script: echo\n- *step\n");
+        SectionIndex sectionIndex = new SectionIndex();
+        sectionIndex.build(yamlMap);
+        Assertions.assertEquals(2, sectionIndex.lookup("script").size());
+        sectionIndex.update(yamlMap.get("steps"));
+        Assertions.assertFalse(sectionIndex.isValid());
+    }
+}
@@ -0,0 +1,180 @@
+// Copyright (c) Henry van Merode.
+// Licensed under the MIT License.
+
+package azdo.yaml;
+
+import azdo.action.Action;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yaml.snakeyaml.Yaml;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Function;
+
+public class SectionSelectorTest {
+    private static final String PIPELINE = "stages:\n" +
+            "- stage: build\n" +
+            "  jobs:\n" +
+            "  - job: compile\n" +
+            "    steps:\n" +
+            "    - script: echo compile\n" +
+            "      displayName: 'Testing, testing'\n" +
+            "    - task: Bash@3\n" +
+            "      displayName: Deploy\n" +
+            "    - bash: echo deploy\n" +
+            "      displayName: Deploy\n" +
+            "- stage: test\n" +
+            "  jobs:\n" +
+            "  - job: compile\n" +
+            "    steps:\n" +
+            "    - script: echo test\n" +
+            "      displayName: Deploy\n";
+
+    private static ArrayList<SectionSelector.SectionMatch> match(String expression, String yaml) {
+        Map<String, Object> yamlMap = new Yaml().load(yaml);
+        SectionIndex sectionIndex = new SectionIndex();
+        sectionIndex.build(yamlMap);
+        return SectionSelector.compile(expression).match(yamlMap, sectionIndex);
+    }
+
+    @Test
+    public void testIdentifierAndProperty() {
+        ArrayList<SectionSelector.SectionMatch> matches = match("stage[build]", PIPELINE);
+        Assertions.assertEquals(1, matches.size());
+        Assertions.assertEquals("build", matches.get(0).getValue());
+
+        // A stage has no property 'name', so [name=build] compares the identifier
+        Assertions.assertEquals(1, match("stage[name=build]", PIPELINE).size());
+        Assertions.assertEquals(2, match("script|bash[displayName=Deploy]", PIPELINE).size());
+        Assertions.assertEquals(1, match("task[Bash@3][displayName=Deploy]", PIPELINE).size());
+        Assertions.assertEquals(0, match("task[PowerShell@2][displayName=Deploy]", PIPELINE).size());
+        Assertions.assertEquals(2, match("stage[*]", PIPELINE).size());
+    }
+
+    @Test
+    public void testPath() {
+        ArrayList<SectionSelector.SectionMatch> matches = match("stages/stage[name=build]/jobs/job[*]/steps/script[displayName='Testing, testing']", PIPELINE);
+        Assertions.assertEquals(1, matches.size());
+        Assertions.assertEquals("echo compile", matches.get(0).getValue());
+        Assertions.assertEquals("script", matches.get(0).sectionType);
+
+        // The job of stage 'test' only
+        matches = match("stage[test]/jobs/job/steps/script", PIPELINE);
+        Assertions.assertEquals(1, matches.size());
+        Assertions.assertEquals("echo test", matches.get(0).getValue());
+    }
+
+    @Test
+    public void testAnchored() {
+        Assertions.assertEquals(1, match("/stages", PIPELINE).size());
+        Assertions.assertEquals(0, match("/stage", PIPELINE).size());
+        Assertions.assertEquals(2, match("stage", PIPELINE).size());
+    }
+
+    @Test
+    public void testMultipleExpressionsInOrder() {
+        ArrayList<SectionSelector.SectionMatch> matches = match("task[displayName=Deploy], script|bash[displayName=Deploy]", PIPELINE);
+        Assertions.assertEquals(3, matches.size());
+        Assertions.assertEquals("task", matches.get(0).sectionType);
+    }
+
+    @Test
+    public void testQuoting() {
+        String yaml = "steps:\n" +
+                "- script: echo\n" +
+                "  displayName: \"It's a/b [c], d|e\"\n";
+        String quoted = SectionSelector.quote("It's a/b [c], d|e");
+        Assertions.assertEquals("'It''s a/b [c], d|e'", quoted);
+        Assertions.assertEquals(1, match("script[displayName=" + quoted + "]", yaml).size());
+        Assertions.assertEquals(1, match("script[displayName=\"It's a/b [c], d|e\"]", yaml).size());
+    }
+
+    @Test
+    public void testOf() {
+        SectionSelector selector = SectionSelector.of(new ArrayList<>(Arrays.asList("script", "bash")), "displayName", "Testing, testing");
+        Assertions.assertEquals("script|bash[displayName='Testing, testing']", selector.getExpression());
+        selector = SectionSelector.of(new ArrayList<>(Arrays.asList("task")), null, "Bash@3");
+        Assertions.assertEquals("task['Bash@3']", selector.getExpression());
+    }
+
+    @Test
+    public void testSectionTypes() {
+        SectionSelector selector = SectionSelector.compile("script|bash[Deploy], stages/stage/jobs/job/steps/task|bash[Bash@3]");
+        Assertions.assertEquals(Arrays.asList("script", "bash", "task"), selector.getSectionTypes());
+    }
+
+    @Test
+    public void testInvalidExpressions() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> SectionSelector.compile(""));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> SectionSelector.compile("script[displayName=Deploy"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> SectionSelector.compile("script[displayName='Deploy]"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> SectionSelector.compile("script|[Deploy]"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> SectionSelector.compile("script[Deploy]x"));
+    }
+
+    @Test
+    public void testFirstSectionTypeWinsInAllDocuments(@TempDir Path directory) throws IOException {
+        // The main document contains a 'bash' step, the template a 'script' step; 'script' has priority
+        Files.writeString(directory.resolve("main.yml"), "steps:\n- bash: echo main\n  displayName: Deploy\n");
+        Files.writeString(directory.resolve("template.yml"), "steps:\n- script: echo template\n  displayName: Deploy\n");
+        YamlDocument main = read(directory, "main.yml");
+        YamlDocument template = read(directory, "template.yml");
+        ArrayList<YamlDocument> yamlDocuments = new ArrayList<>(Arrays.asList(main, template));
+
+        ArrayList<String> changedTypes = new ArrayList<>();
+        Function<String, Action> actionFactory = sectionType -> new Action() {
+            @Override
+            public void execute(ActionResult actionResult) {
+                ((Map<String, Object>) actionResult.l2).put(sectionType, "echo changed");
+                changedTypes.add(sectionType);
+                actionResult.actionExecuted = true;
+            }
+
+            @Override
+            public boolean needsSectionIdentifier() {
+                return false;
+            }
+
+            @Override
+            public boolean isCustomAction() {
+                return true;
+            }
+        };
+
+        ActionResult actionResult = YamlDocument.performAction(yamlDocuments, SectionSelector.compile("script|bash[displayName=Deploy]"), actionFactory);
+        Assertions.assertTrue(actionResult.actionExecuted);
+        Assertions.assertEquals(Arrays.asList("script"), changedTypes);
+        Assertions.assertFalse(main.isDirty());
+        Assertions.assertTrue(template.isDirty());
+    }
+
+    @Test
+    public void testMatchesAreGroupedBySectionType(@TempDir Path directory) throws IOException {
+        Files.writeString(directory.resolve("main.yml"), "steps:\n- bash: echo main\n  displayName: Deploy\n- task: Bash@3\n  displayName: Deploy\n- bash: echo again\n  displayName: Deploy\n");
+        Files.writeString(directory.resolve("template.yml"), "steps:\n- script: echo template\n  displayName: Build\n");
+        ArrayList<YamlDocument> yamlDocuments = new ArrayList<>(Arrays.asList(read(directory, "main.yml"), read(directory, "template.yml")));
+        SectionSelector selector = SectionSelector.compile("script|bash[displayName=Deploy], task[Bash@3]");
+
+        ArrayList<Map<String, ArrayList<SectionSelector.SectionMatch>>> matchesPerDocument = YamlDocument.match(yamlDocuments, selector);
+        Assertions.assertEquals(2, matchesPerDocument.size());
+        Assertions.assertEquals(Arrays.asList("bash", "task"), new ArrayList<>(matchesPerDocument.get(0).keySet()));
+        Assertions.assertEquals(2, matchesPerDocument.get(0).get("bash").size());
+        Assertions.assertEquals("echo again", matchesPerDocument.get(0).get("bash").get(1).getValue());
+        Assertions.assertTrue(matchesPerDocument.get(1).isEmpty());
+
+        // 'script' has priority, but does not match; 'bash' is the first type that matches
+        Assertions.assertEquals("bash", YamlDocument.firstSectionType(selector, matchesPerDocument));
+        Assertions.assertNull(YamlDocument.firstSectionType(SectionSelector.compile("pwsh"), YamlDocument.match(yamlDocuments, SectionSelector.compile("pwsh"))));
+    }
+
+    private static YamlDocument read(Path directory, String fileName) {
+        YamlDocument yamlDocument = new YamlDocument(fileName, directory.toString(), directory.resolve("target").toString(), "source", "target");
+        Assertions.assertNotNull(yamlDocument.readYaml(true));
+        return yamlDocument;
+    }
+}